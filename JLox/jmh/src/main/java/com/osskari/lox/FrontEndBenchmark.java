@@ -0,0 +1,105 @@
+package com.osskari.lox;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scanner, parser and resolver throughput on generated sources of a few megabytes. Each phase is measured on its own
+ * and all three together, divide the source size by the time per operation for bytes per second.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class FrontEndBenchmark {
+    // Classes, inheritance, closures, control flow and every kind of expression, so all parser paths are exercised.
+    private static final String UNIT = """
+            class Shape# {
+              init(width, height) {
+                this.width = width;
+                this.height = height;
+              }
+
+              area() {
+                return this.width * this.height;
+              }
+            }
+
+            class Square# < Shape# {
+              init(side) {
+                super.init(side, side);
+              }
+
+              describe() {
+                return "square of " + this.width + " with area " + this.area();
+              }
+            }
+
+            fun compute#(n) {
+              var total = 0;
+              for (var i = 0; i < n; i = i + 1) {
+                if (i / 2 >= 1 and !(i > 10) or i == nil) {
+                  total = total + Square#(i).area();
+                } else {
+                  total = total - -1.5;
+                }
+              }
+
+              fun counter() {
+                total = total + 1;
+                return total;
+              }
+
+              while (total != 0 and false) counter();
+              return counter;
+            }
+
+            var result# = compute#(3);
+            """;
+
+    @Param({"1", "4"})
+    public int megabytes;
+
+    private final ErrorReporter reporter = new ErrorReporter(System.err);
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+
+    @Setup
+    public void setUp() {
+        int size = megabytes * 1024 * 1024;
+        StringBuilder builder = new StringBuilder(size + UNIT.length() * 2);
+        for (int i = 0; builder.length() < size; i++) {
+            builder.append(UNIT.replace("#", Integer.toString(i)));
+        }
+
+        source = builder.toString();
+        tokens = new Scanner(source, reporter).scanTokens();
+        statements = Scripts.compile(source);
+    }
+
+    @Benchmark
+    public List<Token> scan() {
+        return new Scanner(source, reporter).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        return new Parser(tokens, reporter).parse();
+    }
+
+    @Benchmark
+    public List<Stmt> resolve() {
+        new Resolver(reporter).resolve(statements);
+        return statements;
+    }
+
+    @Benchmark
+    public List<Stmt> frontEnd() {
+        return Scripts.compile(source);
+    }
+}
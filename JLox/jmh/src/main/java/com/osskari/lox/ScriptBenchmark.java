@@ -0,0 +1,63 @@
+package com.osskari.lox;
+
+import com.osskari.lox.jit.FunctionCompiler;
+import com.osskari.lox.nodes.NodeInterpreter;
+import com.osskari.lox.vm.VM;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the scripts in benchmark/ on each backend. Scripts are scanned, parsed and resolved before every invocation,
+ * outside of what is measured, so only execution is. The tree carries state from one run to the next, inline caches,
+ * call counts and compiled code, so every invocation gets a fresh one like a script run from the command line does.
+ * Whatever the scripts print is discarded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "--enable-preview")
+public class ScriptBenchmark {
+    @Param({"fib", "binary_trees", "equality", "instantiation", "invocation", "method_call", "properties",
+            "string_equality", "zoo", "function_properties"})
+    public String script;
+
+    @Param({"tree", "jit", "nodes", "vm"})
+    public String backend;
+
+    private final PrintStream out = new PrintStream(OutputStream.nullOutputStream());
+    private final ErrorReporter reporter = new ErrorReporter(System.err);
+    private String source;
+    private List<Stmt> statements;
+
+    @Setup
+    public void load() throws IOException {
+        source = Scripts.load(STR."\{script}.lox");
+    }
+
+    @Setup(Level.Invocation)
+    public void compile() {
+        statements = Scripts.compile(source);
+    }
+
+    @Benchmark
+    public void run() {
+        switch (backend) {
+            case "tree" -> new Interpreter(out, reporter).interpret(statements);
+            case "jit" -> {
+                Interpreter interpreter = new Interpreter(out, reporter);
+                interpreter.jit = new FunctionCompiler();
+                interpreter.interpret(statements);
+            }
+            case "nodes" -> new NodeInterpreter(out, reporter).interpret(statements);
+            case "vm" -> new VM(out, reporter).interpret(statements);
+            default -> throw new IllegalArgumentException(STR."Unknown backend '\{backend}'.");
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.osskari.lox;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Loads benchmark scripts from the classpath and runs the front end over them, the same way LoxEngine.run does.
+ */
+final class Scripts {
+    private Scripts() {
+    }
+
+    static String load(String name) throws IOException {
+        try (InputStream input = Scripts.class.getResourceAsStream(STR."/\{name}")) {
+            if (input == null) throw new IOException(STR."No benchmark script named '\{name}'.");
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    static List<Stmt> compile(String source) {
+        ErrorReporter reporter = new ErrorReporter(System.err);
+        List<Stmt> statements = new Parser(new Scanner(source, reporter).scanTokens(), reporter).parse();
+        new Resolver(reporter).resolve(statements);
+
+        if (reporter.hadError()) throw new IllegalStateException("Benchmark script has compile errors.");
+        return new Optimizer().optimize(statements);
+    }
+}
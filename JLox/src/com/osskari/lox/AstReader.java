@@ -0,0 +1,206 @@
+package com.osskari.lox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads back statements written by {@link AstWriter}, resolved and ready to run. Identifiers are interned as they're
+ * read, like the scanner does.
+ */
+final class AstReader {
+    private static final TokenType[] TOKEN_TYPES = TokenType.values();
+
+    private final ByteBuffer input;
+    private final String[] strings;
+    private final Symbol[] symbols;
+
+    AstReader(ByteBuffer input) {
+        this.input = input;
+        this.strings = new String[readVarInt()];
+        this.symbols = new Symbol[strings.length];
+        for (int i = 0; i < strings.length; i++) {
+            int length = readVarInt();
+            strings[i] = new String(input.array(), input.arrayOffset() + input.position(), length,
+                    StandardCharsets.UTF_8);
+            input.position(input.position() + length);
+        }
+    }
+
+    List<Stmt> read() {
+        List<Stmt> statements = readStatements();
+        if (input.hasRemaining()) throw new IllegalStateException("Trailing bytes after the statements.");
+        return statements;
+    }
+
+    private List<Stmt> readStatements() {
+        int count = readInt();
+        List<Stmt> statements = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            statements.add(readStmt());
+        }
+        return statements;
+    }
+
+    private Stmt readStmt() {
+        switch (readInt()) {
+            case AstWriter.NONE -> {
+                return null;
+            }
+            case AstWriter.BLOCK -> {
+                Stmt.Block block = new Stmt.Block(readStatements());
+                block.scopeSize = readInt();
+                return block;
+            }
+            case AstWriter.CLASS -> {
+                Token name = readToken();
+                Expr.Variable superclass = (Expr.Variable) readExpr();
+                int count = readInt();
+                List<Stmt.Function> methods = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    methods.add((Stmt.Function) readStmt());
+                }
+                Stmt.Class klass = new Stmt.Class(name, superclass, methods);
+                klass.slot = readInt();
+                return klass;
+            }
+            case AstWriter.EXPRESSION -> {
+                return new Stmt.Expression(readExpr());
+            }
+            case AstWriter.FUNCTION -> {
+                Token name = readToken();
+                int count = readInt();
+                List<Token> params = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    params.add(readToken());
+                }
+                Stmt.Function function = new Stmt.Function(name, params, readStatements());
+                function.slot = readInt();
+                function.scopeSize = readInt();
+                return function;
+            }
+            case AstWriter.IF -> {
+                return new Stmt.If(readExpr(), readStmt(), readStmt());
+            }
+            case AstWriter.PRINT -> {
+                return new Stmt.Print(readExpr());
+            }
+            case AstWriter.RETURN -> {
+                return new Stmt.Return(readToken(), readExpr());
+            }
+            case AstWriter.VAR -> {
+                Stmt.Var var = new Stmt.Var(readToken(), readExpr());
+                var.slot = readInt();
+                return var;
+            }
+            case AstWriter.WHILE -> {
+                return new Stmt.While(readExpr(), readStmt());
+            }
+            default -> throw new IllegalStateException("Unknown statement tag.");
+        }
+    }
+
+    private Expr readExpr() {
+        switch (readInt()) {
+            case AstWriter.NONE -> {
+                return null;
+            }
+            case AstWriter.ASSIGN -> {
+                Expr.Assign assign = new Expr.Assign(readToken(), readExpr());
+                assign.slot = readInt();
+                assign.depth = readInt();
+                return assign;
+            }
+            case AstWriter.BINARY -> {
+                return new Expr.Binary(readExpr(), readToken(), readExpr());
+            }
+            case AstWriter.CALL -> {
+                Expr callee = readExpr();
+                Token paren = readToken();
+                int count = readInt();
+                List<Expr> arguments = new ArrayList<>(count);
+                for (int i = 0; i < count; i++) {
+                    arguments.add(readExpr());
+                }
+                return new Expr.Call(callee, paren, arguments);
+            }
+            case AstWriter.GET -> {
+                return new Expr.Get(readExpr(), readToken());
+            }
+            case AstWriter.GROUPING -> {
+                return new Expr.Grouping(readExpr());
+            }
+            case AstWriter.LITERAL -> {
+                return new Expr.Literal(readLiteral());
+            }
+            case AstWriter.LOGICAL -> {
+                return new Expr.Logical(readExpr(), readToken(), readExpr());
+            }
+            case AstWriter.SET -> {
+                return new Expr.Set(readExpr(), readToken(), readExpr());
+            }
+            case AstWriter.SUPER -> {
+                Expr.Super superExpr = new Expr.Super(readToken(), readToken());
+                superExpr.slot = readInt();
+                superExpr.depth = readInt();
+                return superExpr;
+            }
+            case AstWriter.THIS -> {
+                Expr.This thisExpr = new Expr.This(readToken());
+                thisExpr.slot = readInt();
+                thisExpr.depth = readInt();
+                return thisExpr;
+            }
+            case AstWriter.UNARY -> {
+                return new Expr.Unary(readToken(), readExpr());
+            }
+            case AstWriter.VARIABLE -> {
+                Expr.Variable variable = new Expr.Variable(readToken());
+                variable.slot = readInt();
+                variable.depth = readInt();
+                return variable;
+            }
+            default -> throw new IllegalStateException("Unknown expression tag.");
+        }
+    }
+
+    private Object readLiteral() {
+        return switch (readInt()) {
+            case AstWriter.NIL -> null;
+            case AstWriter.FALSE -> false;
+            case AstWriter.TRUE -> true;
+            case AstWriter.NUMBER -> input.getDouble();
+            case AstWriter.STRING -> strings[readInt()];
+            default -> throw new IllegalStateException("Unknown literal tag.");
+        };
+    }
+
+    private Token readToken() {
+        TokenType type = TOKEN_TYPES[readInt()];
+        int line = readInt();
+        if (type == TokenType.IDENTIFIER) return new Token(symbol(readInt()), line);
+        return new Token(type, AstWriter.hasText(type) ? strings[readInt()] : null, null, line);
+    }
+
+    private Symbol symbol(int index) {
+        if (symbols[index] == null) {
+            symbols[index] = SymbolTable.intern(strings[index]);
+        }
+        return symbols[index];
+    }
+
+    private int readInt() {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private int readVarInt() {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = input.get();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) return value;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+package com.osskari.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes resolved statements in the binary format of the {@link ScriptCache}, read back by {@link AstReader}. Every
+ * node is a tag followed by its fields in declaration order, slots and depths from the resolver included, and
+ * optional nodes are written as {@link #NONE}. Text is written once into a table ahead of the nodes, which refer to
+ * it by index. Integers are variable length, so small ones take a byte.
+ */
+final class AstWriter implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final int NONE = 0;
+
+    static final int ASSIGN = 1;
+    static final int BINARY = 2;
+    static final int CALL = 3;
+    static final int GET = 4;
+    static final int GROUPING = 5;
+    static final int LITERAL = 6;
+    static final int LOGICAL = 7;
+    static final int SET = 8;
+    static final int SUPER = 9;
+    static final int THIS = 10;
+    static final int UNARY = 11;
+    static final int VARIABLE = 12;
+
+    static final int BLOCK = 1;
+    static final int CLASS = 2;
+    static final int EXPRESSION = 3;
+    static final int FUNCTION = 4;
+    static final int IF = 5;
+    static final int PRINT = 6;
+    static final int RETURN = 7;
+    static final int VAR = 8;
+    static final int WHILE = 9;
+
+    static final int NIL = 0;
+    static final int FALSE = 1;
+    static final int TRUE = 2;
+    static final int NUMBER = 3;
+    static final int STRING = 4;
+
+    private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    private final DataOutputStream body = new DataOutputStream(bytes);
+    private final Map<String, Integer> strings = new HashMap<>();
+    private final List<String> table = new ArrayList<>();
+
+    /**
+     * Writes the string table and then the statements.
+     */
+    void write(List<Stmt> statements, OutputStream output) throws IOException {
+        writeStatements(statements);
+
+        DataOutputStream out = new DataOutputStream(output);
+        writeVarInt(out, table.size());
+        for (String string : table) {
+            byte[] utf8 = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, utf8.length);
+            out.write(utf8);
+        }
+        bytes.writeTo(out);
+        out.flush();
+    }
+
+    private void writeStatements(List<? extends Stmt> statements) {
+        writeInt(statements.size());
+        for (Stmt statement : statements) {
+            write(statement);
+        }
+    }
+
+    private void write(Stmt statement) {
+        if (statement == null) {
+            writeInt(NONE);
+        } else {
+            statement.accept(this);
+        }
+    }
+
+    private void write(Expr expression) {
+        if (expression == null) {
+            writeInt(NONE);
+        } else {
+            expression.accept(this);
+        }
+    }
+
+    private void write(Token token) {
+        writeInt(token.type.ordinal());
+        writeInt(token.line);
+        if (hasText(token.type)) writeString(token.lexeme());
+    }
+
+    // Every other token always has the same text.
+    static boolean hasText(TokenType type) {
+        return type == TokenType.IDENTIFIER || type == TokenType.STRING || type == TokenType.NUMBER;
+    }
+
+    private void writeString(String string) {
+        Integer index = strings.get(string);
+        if (index == null) {
+            index = table.size();
+            strings.put(string, index);
+            table.add(string);
+        }
+        writeInt(index);
+    }
+
+    // Zigzag encoded, so the -1 of unresolved slots and depths takes a byte too.
+    private void writeInt(int value) {
+        try {
+            writeVarInt(body, (value << 1) ^ (value >> 31));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7f) != 0) {
+            out.writeByte((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        writeInt(ASSIGN);
+        write(expr.name);
+        write(expr.value);
+        writeInt(expr.slot);
+        writeInt(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        writeInt(BINARY);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        writeInt(CALL);
+        write(expr.callee);
+        write(expr.paren);
+        writeInt(expr.arguments.size());
+        for (Expr argument : expr.arguments) {
+            write(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        writeInt(GET);
+        write(expr.object);
+        write(expr.name);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        writeInt(GROUPING);
+        write(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        writeInt(LITERAL);
+        switch (expr.value) {
+            case null -> writeInt(NIL);
+            case Boolean value -> writeInt(value ? TRUE : FALSE);
+            case Double value -> {
+                writeInt(NUMBER);
+                try {
+                    body.writeDouble(value);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            case String value -> {
+                writeInt(STRING);
+                writeString(value);
+            }
+            default -> throw new IllegalArgumentException(STR."Can't write a literal of \{expr.value.getClass()}.");
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        writeInt(LOGICAL);
+        write(expr.left);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        writeInt(SET);
+        write(expr.object);
+        write(expr.name);
+        write(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        writeInt(SUPER);
+        write(expr.keyword);
+        write(expr.method);
+        writeInt(expr.slot);
+        writeInt(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        writeInt(THIS);
+        write(expr.keyword);
+        writeInt(expr.slot);
+        writeInt(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        writeInt(UNARY);
+        write(expr.operator);
+        write(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        writeInt(VARIABLE);
+        write(expr.name);
+        writeInt(expr.slot);
+        writeInt(expr.depth);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        writeInt(BLOCK);
+        writeStatements(stmt.statements);
+        writeInt(stmt.scopeSize);
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        writeInt(CLASS);
+        write(stmt.name);
+        write(stmt.superclass);
+        writeStatements(stmt.methods);
+        writeInt(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        writeInt(EXPRESSION);
+        write(stmt.expression);
+        return null;
+    }
+
+    // How often it was called and its compiled code belong to the run, not to the program.
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        writeInt(FUNCTION);
+        write(stmt.name);
+        writeInt(stmt.params.size());
+        for (Token param : stmt.params) {
+            write(param);
+        }
+        writeStatements(stmt.body);
+        writeInt(stmt.slot);
+        writeInt(stmt.scopeSize);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        writeInt(IF);
+        write(stmt.condition);
+        write(stmt.thenBranch);
+        write(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        writeInt(PRINT);
+        write(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        writeInt(RETURN);
+        write(stmt.keyword);
+        write(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        writeInt(VAR);
+        write(stmt.name);
+        write(stmt.initializer);
+        writeInt(stmt.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        writeInt(WHILE);
+        write(stmt.condition);
+        write(stmt.body);
+        return null;
+    }
+}
@@ -0,0 +1,312 @@
+package com.osskari.lox;
+
+import com.osskari.lox.jit.CompiledFunction;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+import java.util.Arrays;
+
+/**
+ * Call sites for compiled code. Each site starts out unlinked and links itself on first use to what it found: the
+ * function being called, or the method a property resolves to for the receiver's class. Linked targets are chained
+ * behind guards on that function or class, so a site that sees another one relinks by adding a guard in front. A site
+ * that has seen more than a few is megamorphic and goes back to doing the full lookup every time.
+ * <p>
+ * Compiled code keeps the dynamic invoker of every site in a static final field, so the JVM's JIT sees the site as a
+ * constant and can inline through the guards into the linked function, compiled Lox functions included.
+ * <p>
+ * An invocation site gets the arguments already evaluated. A missing method is reported after the arguments were
+ * evaluated, like the bytecode VM does, where the tree-walker reports it before.
+ * <p>
+ * A site of a call in tail position doesn't call a Lox function, it returns a {@link LoxFunction.TailCall} for the
+ * caller of the compiled code to make instead, so tail calls take no stack in compiled code either. Calls of compiled
+ * code linked from other compiled code make those calls themselves.
+ */
+public final class Dispatch {
+    static final int MAX_ENTRIES = 4;
+
+    static final MethodType CALL_TYPE =
+            MethodType.methodType(Object.class, Object.class, Object[].class, Interpreter.class);
+    static final MethodType GET_TYPE = MethodType.methodType(Object.class, Object.class);
+    static final MethodType SET_TYPE = MethodType.methodType(Object.class, Object.class, Object.class);
+
+    private static final MethodHandle IS_SAME;
+    private static final MethodHandle IS_INSTANCE_OF;
+    private static final MethodHandle HAS_METHOD;
+    private static final MethodHandle CALL_COMPILED;
+    private static final MethodHandle CALL_CALLABLE;
+    private static final MethodHandle CALL_METHOD;
+    private static final MethodHandle TAIL_CALL;
+    private static final MethodHandle TAIL_CALL_METHOD;
+    private static final MethodHandle GET_PROPERTY;
+    private static final MethodHandle SET_FIELD;
+    private static final MethodHandle CALL_FALLBACK;
+    private static final MethodHandle INVOKE_FALLBACK;
+    private static final MethodHandle GET_FALLBACK;
+
+    static {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        try {
+            IS_SAME = lookup.findStatic(Dispatch.class, "isSame",
+                    MethodType.methodType(boolean.class, Object.class, Object.class));
+            IS_INSTANCE_OF = lookup.findStatic(Dispatch.class, "isInstanceOf",
+                    MethodType.methodType(boolean.class, LoxClass.class, Object.class));
+            HAS_METHOD = lookup.findStatic(Dispatch.class, "hasMethod",
+                    MethodType.methodType(boolean.class, LoxClass.class, Token.class, Object.class));
+            CALL_COMPILED = lookup.findStatic(Dispatch.class, "callCompiled",
+                    CALL_TYPE.insertParameterTypes(0, LoxFunction.class, CompiledFunction.class));
+            CALL_CALLABLE = lookup.findStatic(Dispatch.class, "callCallable",
+                    CALL_TYPE.insertParameterTypes(0, LoxCallable.class));
+            CALL_METHOD = lookup.findStatic(Dispatch.class, "callMethod",
+                    CALL_TYPE.insertParameterTypes(0, LoxFunction.class));
+            TAIL_CALL = lookup.findStatic(Dispatch.class, "tailCall",
+                    CALL_TYPE.insertParameterTypes(0, LoxFunction.class));
+            TAIL_CALL_METHOD = lookup.findStatic(Dispatch.class, "tailCallMethod",
+                    CALL_TYPE.insertParameterTypes(0, LoxFunction.class));
+            GET_PROPERTY = lookup.findStatic(Dispatch.class, "getProperty",
+                    GET_TYPE.insertParameterTypes(0, Token.class, LoxFunction.class));
+            SET_FIELD = lookup.findStatic(Dispatch.class, "setField", SET_TYPE.insertParameterTypes(0, Token.class));
+            CALL_FALLBACK = lookup.findVirtual(FunctionSite.class, "fallback", CALL_TYPE);
+            INVOKE_FALLBACK = lookup.findVirtual(InvokeSite.class, "fallback", CALL_TYPE);
+            GET_FALLBACK = lookup.findVirtual(GetSite.class, "fallback", GET_TYPE);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private Dispatch() {
+    }
+
+    /**
+     * A call of anything but a method, as (callee, arguments, interpreter) -> result.
+     */
+    public static MethodHandle call(Token paren, boolean tail) {
+        return new FunctionSite(paren, tail).dynamicInvoker();
+    }
+
+    /**
+     * A call of the form object.name(...), as (object, arguments, interpreter) -> result.
+     */
+    public static MethodHandle invoke(Token name, Token paren, boolean tail) {
+        return new InvokeSite(name, paren, tail).dynamicInvoker();
+    }
+
+    /**
+     * A property read, as (object) -> value.
+     */
+    public static MethodHandle get(Token name) {
+        return new GetSite(name).dynamicInvoker();
+    }
+
+    /**
+     * A property write, as (object, value) -> value. Fields live in a map on each instance rather than in slots laid
+     * out by the class, so there is nothing to link to: the site is the same for every receiver.
+     */
+    public static MethodHandle set(Token name) {
+        return MethodHandles.insertArguments(SET_FIELD, 0, name);
+    }
+
+    private abstract static class Site extends MutableCallSite {
+        private final MethodHandle fallback;
+        private int entries = 0;
+
+        Site(MethodType type, MethodHandle fallback) {
+            super(type);
+            this.fallback = fallback.bindTo(this);
+            setTarget(this.fallback);
+        }
+
+        /**
+         * Puts a guarded target in front of the chain. Linking past MAX_ENTRIES drops the chain, from then on every
+         * call goes through the fallback and nothing is linked anymore.
+         */
+        final void link(MethodHandle guard, MethodHandle target) {
+            if (entries < MAX_ENTRIES) {
+                setTarget(MethodHandles.guardWithTest(guard, target, getTarget()));
+            } else {
+                setTarget(fallback);
+            }
+            entries++;
+        }
+
+        final boolean isMegamorphic() {
+            return entries > MAX_ENTRIES;
+        }
+    }
+
+    private static final class FunctionSite extends Site {
+        private final Token paren;
+        private final boolean tail;
+
+        FunctionSite(Token paren, boolean tail) {
+            super(CALL_TYPE, CALL_FALLBACK);
+            this.paren = paren;
+            this.tail = tail;
+        }
+
+        Object fallback(Object callee, Object[] arguments, Interpreter interpreter) {
+            LoxCallable function = checkCallable(callee, arguments, paren);
+            if (tail && function instanceof LoxFunction loxFunction) {
+                if (!isMegamorphic()) {
+                    link(MethodHandles.insertArguments(IS_SAME, 0, callee),
+                            MethodHandles.insertArguments(TAIL_CALL, 0, loxFunction));
+                }
+                return loxFunction.tailCall(Arrays.asList(arguments));
+            }
+
+            if (!isMegamorphic()) {
+                MethodHandle guard = MethodHandles.insertArguments(IS_SAME, 0, callee);
+                if (function instanceof LoxFunction loxFunction && interpreter.profiler == null) {
+                    // Functions are linked once they are compiled, so the site calls the compiled code directly. The
+                    // profiler needs every call to go through the function instead.
+                    CompiledFunction compiled = loxFunction.compiled();
+                    if (compiled != null) {
+                        link(guard, MethodHandles.insertArguments(CALL_COMPILED, 0, loxFunction, compiled));
+                    }
+                } else {
+                    link(guard, MethodHandles.insertArguments(CALL_CALLABLE, 0, function));
+                }
+            }
+
+            return function.call(interpreter, Arrays.asList(arguments));
+        }
+    }
+
+    private static final class InvokeSite extends Site {
+        private final Token name;
+        private final Token paren;
+        private final boolean tail;
+        private final InlineCache cache = new InlineCache();
+
+        InvokeSite(Token name, Token paren, boolean tail) {
+            super(CALL_TYPE, INVOKE_FALLBACK);
+            this.name = name;
+            this.paren = paren;
+            this.tail = tail;
+        }
+
+        Object fallback(Object object, Object[] arguments, Interpreter interpreter) {
+            if (!(object instanceof LoxInstance instance)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+
+            // A field holding a function shadows the method, and fields differ between instances of the same class.
+            if (instance.hasField(name)) {
+                LoxCallable function = checkCallable(instance.get(name, cache), arguments, paren);
+                if (tail && function instanceof LoxFunction loxFunction) {
+                    return loxFunction.tailCall(Arrays.asList(arguments));
+                }
+                return function.call(interpreter, Arrays.asList(arguments));
+            }
+
+            LoxFunction method = instance.findMethod(name, cache);
+            checkArity(method, arguments, paren);
+            if (!isMegamorphic()) {
+                link(MethodHandles.insertArguments(HAS_METHOD, 0, instance.klass, name),
+                        MethodHandles.insertArguments(tail ? TAIL_CALL_METHOD : CALL_METHOD, 0, method));
+            }
+            if (tail) return new LoxFunction.TailCall(method, instance, Arrays.asList(arguments));
+            return method.call(interpreter, instance, Arrays.asList(arguments));
+        }
+    }
+
+    private static final class GetSite extends Site {
+        private final Token name;
+        private final InlineCache cache = new InlineCache();
+
+        GetSite(Token name) {
+            super(GET_TYPE, GET_FALLBACK);
+            this.name = name;
+        }
+
+        Object fallback(Object object) {
+            if (!(object instanceof LoxInstance instance)) {
+                throw new RuntimeError(name, "Only instances have properties.");
+            }
+
+            LoxFunction method = cache.findMethod(instance.klass, name.symbol());
+            if (!isMegamorphic()) {
+                link(MethodHandles.insertArguments(IS_INSTANCE_OF, 0, instance.klass),
+                        MethodHandles.insertArguments(GET_PROPERTY, 0, name, method));
+            }
+            return instance.get(name, method);
+        }
+    }
+
+    private static LoxCallable checkCallable(Object callee, Object[] arguments, Token paren) {
+        if (!(callee instanceof LoxCallable function)) {
+            throw new RuntimeError(paren, "Can only call functions and classes.");
+        }
+
+        checkArity(function, arguments, paren);
+        return function;
+    }
+
+    private static void checkArity(LoxCallable function, Object[] arguments, Token paren) {
+        if (arguments.length != function.arity()) {
+            throw new RuntimeError(paren, STR."Expected \{function.arity()} arguments but got \{arguments.length}.");
+        }
+    }
+
+    private static boolean isSame(Object expected, Object value) {
+        return expected == value;
+    }
+
+    private static boolean isInstanceOf(LoxClass klass, Object object) {
+        return object instanceof LoxInstance instance && instance.klass == klass;
+    }
+
+    private static boolean hasMethod(LoxClass klass, Token name, Object object) {
+        return object instanceof LoxInstance instance && instance.klass == klass && !instance.hasField(name);
+    }
+
+    // The arity was checked when the site was linked, it can't change for the same function and argument count. The
+    // call skips the function, so it records its Flight Recorder event itself.
+    private static Object callCompiled(LoxFunction function, CompiledFunction compiled, Object callee,
+                                       Object[] arguments, Interpreter interpreter) {
+        function.enterFrame(interpreter);
+        try {
+            Events.Call event = new Events.Call();
+            event.begin();
+            Object result = compiled.call(interpreter, Arrays.asList(arguments));
+            function.commit(event);
+            if (result instanceof LoxFunction.TailCall tail) return tail.make(interpreter);
+            return result;
+        } finally {
+            interpreter.frames--;
+        }
+    }
+
+    private static Object callCallable(LoxCallable function, Object callee, Object[] arguments,
+                                       Interpreter interpreter) {
+        return function.call(interpreter, Arrays.asList(arguments));
+    }
+
+    private static Object callMethod(LoxFunction method, Object object, Object[] arguments, Interpreter interpreter) {
+        return method.call(interpreter, (LoxInstance) object, Arrays.asList(arguments));
+    }
+
+    private static Object tailCall(LoxFunction function, Object callee, Object[] arguments, Interpreter interpreter) {
+        return function.tailCall(Arrays.asList(arguments));
+    }
+
+    private static Object tailCallMethod(LoxFunction method, Object object, Object[] arguments,
+                                         Interpreter interpreter) {
+        return new LoxFunction.TailCall(method, (LoxInstance) object, Arrays.asList(arguments));
+    }
+
+    private static Object getProperty(Token name, LoxFunction method, Object object) {
+        return ((LoxInstance) object).get(name, method);
+    }
+
+    private static Object setField(Token name, Object object, Object value) {
+        if (!(object instanceof LoxInstance instance)) {
+            throw new RuntimeError(name, "Only instances have fields.");
+        }
+
+        instance.set(name, value);
+        return value;
+    }
+}
@@ -1,22 +1,71 @@
 package com.osskari.lox;
 
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 class Environment {
+    private static final AtomicInteger globalEnvironments = new AtomicInteger();
+
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // Globals are late bound. Every global environment numbers the globals its own script defines from 0, so its
+    // table only grows with them however many symbols other engines have interned. Every local scope gets a fixed
+    // number of slots from the resolver.
+    private final int id;
+    private final Map<Symbol, Integer> indices;
+    private Object[] values;
+    private final Object[] slots;
+
+    /**
+     * Where a token last found the global it names: the index in the global environment with this id. Every engine
+     * scans its own tokens, or reads its own from the {@link ScriptCache}, and keeps one global environment, so a
+     * token normally only ever meets one. The id makes a token used by another interpreter anyway look its global up
+     * again rather than read another environment's index.
+     */
+    record Global(int environment, int index) {
+    }
 
     Environment() {
         enclosing = null;
+        id = globalEnvironments.getAndIncrement();
+        indices = new IdentityHashMap<>();
+        values = new Object[8];
+        slots = null;
     }
 
-    Environment(Environment enclosing) {
+    Environment(Environment enclosing, int size) {
         this.enclosing = enclosing;
+        id = -1;
+        indices = null;
+        values = null;
+        slots = new Object[size];
+    }
+
+    void define(Symbol name, Object value) {
+        Integer index = indices.get(name);
+        if (index == null) {
+            index = indices.size();
+            indices.put(name, index);
+            if (index == values.length) values = Arrays.copyOf(values, index * 2);
+        }
+        values[index] = value;
     }
 
-    void define(String name, Object value) {
-        values.put(name, value);
+    // The index of the global the token names, or -1 when it isn't defined.
+    private int index(Token name) {
+        Global global = name.global;
+        if (global != null && global.environment() == id) return global.index();
+
+        Integer index = indices.get(name.symbol());
+        if (index == null) return -1;
+
+        name.global = new Global(id, index);
+        return index;
+    }
+
+    void define(int slot, Object value) {
+        slots[slot] = value;
     }
 
     Environment ancestor(int distance) {
@@ -28,37 +77,30 @@ class Environment {
         return environment;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
-
-        if (enclosing != null) {
-            return enclosing.get(name);
+        int index = index(name);
+        if (index >= 0) {
+            return values[index];
         }
 
-        throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme}'.");
+        throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme()}'.");
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
-
-        if (enclosing != null) {
-            enclosing.assign(name, value);
+        int index = index(name);
+        if (index >= 0) {
+            values[index] = value;
             return;
         }
 
-        throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme}'.");
+        throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme()}'.");
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 }
@@ -0,0 +1,65 @@
+package com.osskari.lox;
+
+import java.io.PrintStream;
+
+/**
+ * Where the errors of one {@link LoxEngine} go, and whether there were any. Every stage that reports errors gets the
+ * reporter of the engine it runs for, so engines running at the same time never see each other's errors.
+ */
+public final class ErrorReporter {
+    private final PrintStream err;
+    private boolean hadError = false;
+    private boolean hadRuntimeError = false;
+
+    public ErrorReporter(PrintStream err) {
+        this.err = err;
+    }
+
+    public void error(int line, String message) {
+        report(line, "", message);
+    }
+
+    public void error(Token token, String message) {
+        if (token.type == TokenType.EOF) {
+            report(token.line, " at end", message);
+        } else {
+            report(token.line, STR." at '\{token.lexeme()}'", message);
+        }
+    }
+
+    private void report(int line, String where, String message) {
+        err.println(STR."[line\{line}] Error\{where}: \{message}");
+        hadError = true;
+    }
+
+    public void runtimeError(RuntimeError error) {
+        runtimeError(STR."\{error.getMessage()}\n[line \{error.token.line}]");
+    }
+
+    /**
+     * A runtime error already formatted, stack trace included, by a backend with its own idea of where it happened.
+     */
+    public void runtimeError(String report) {
+        err.println(report);
+        hadRuntimeError = true;
+
+        Events.RuntimeError event = new Events.RuntimeError();
+        if (event.shouldCommit()) {
+            event.report = report;
+            event.commit();
+        }
+    }
+
+    public boolean hadError() {
+        return hadError;
+    }
+
+    public boolean hadRuntimeError() {
+        return hadRuntimeError;
+    }
+
+    void reset() {
+        hadError = false;
+        hadRuntimeError = false;
+    }
+}
@@ -0,0 +1,78 @@
+package com.osskari.lox;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Enabled;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight Recorder events for what a script does, next to what the JVM does. They're all disabled unless a recording
+ * enables them, by name, since a busy script makes millions of calls. A disabled event is never committed, and the
+ * JVM's JIT removes its allocation along with the begin and end calls, so it costs close to nothing.
+ * <p>
+ * The interpreter's own Java stack says little about the script, so none of them record it.
+ */
+final class Events {
+    private Events() {
+    }
+
+    @Name("com.osskari.lox.Call")
+    @Label("Lox Call")
+    @Description("A call of a Lox function or method, from its first statement to its return.")
+    @Category("Lox")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Call extends Event {
+        @Label("Function")
+        String function;
+
+        @Label("Arity")
+        int arity;
+
+        @Label("Line")
+        @Description("Where the function was declared.")
+        int line;
+    }
+
+    @Name("com.osskari.lox.Instantiation")
+    @Label("Lox Instantiation")
+    @Description("A call of a Lox class, its initializer included.")
+    @Category("Lox")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Instantiation extends Event {
+        @Label("Class")
+        String className;
+
+        @Label("Line")
+        @Description("Where the class was declared.")
+        int line;
+    }
+
+    @Name("com.osskari.lox.RuntimeError")
+    @Label("Lox Runtime Error")
+    @Description("A runtime error that stopped a script.")
+    @Category("Lox")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class RuntimeError extends Event {
+        @Label("Report")
+        @Description("The message and the line, or the stack trace of the bytecode VM, as printed.")
+        String report;
+    }
+
+    @Name("com.osskari.lox.Phase")
+    @Label("Lox Front-End Phase")
+    @Description("Scanning, parsing, resolving or optimizing a script or a batch of a mapped one. A mapped script is "
+            + "scanned as it's parsed.")
+    @Category("Lox")
+    @Enabled(false)
+    @StackTrace(false)
+    static final class Phase extends Event {
+        @Label("Phase")
+        String phase;
+    }
+}
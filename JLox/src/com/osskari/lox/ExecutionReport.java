@@ -0,0 +1,287 @@
+package com.osskari.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * How many times each line of a script ran, from the execution counts of its statements and expressions. A line ran
+ * as often as the busiest node on it, so a line counts once per run of the statement on it rather than once per node.
+ * <p>
+ * Branches and loops are counted from the nodes below them: the then branch of an if ran as often as it was taken, the
+ * body of a loop once per trip, and the right operand of a logical operator whenever the left one didn't decide it.
+ * Those lines get notes with the numbers, and so does the line declaring a function, with how often it was called.
+ * <p>
+ * Nodes without a token of their own take the line of their first operand, a literal has none and isn't counted.
+ */
+public final class ExecutionReport implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private final List<String> lines;
+    private final long[] counts;
+    private final List<List<String>> notes = new ArrayList<>();
+
+    ExecutionReport(String source, List<Stmt> statements) {
+        this.lines = source.lines().toList();
+        this.counts = new long[lines.size() + 1];
+        for (int i = 0; i <= lines.size(); i++) {
+            notes.add(new ArrayList<>());
+        }
+
+        for (Stmt statement : statements) {
+            count(statement);
+        }
+    }
+
+    /**
+     * Writes the whole source with the count of every line in front of it and the notes after it as comments.
+     */
+    public void write(Writer out) throws IOException {
+        out.write(String.format("%12s %5s  %s%n", "count", "line", "source"));
+        for (int line = 1; line <= lines.size(); line++) {
+            String count = counts[line] > 0 ? Long.toString(counts[line]) : "";
+            out.write(String.format("%12s %5d  %s", count, line, lines.get(line - 1)));
+            if (!notes.get(line).isEmpty()) {
+                out.write(STR."  // \{String.join("; ", notes.get(line))}");
+            }
+            out.write(System.lineSeparator());
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints the lines that ran most often, busiest first.
+     */
+    public void printHottest(PrintStream out, int limit) {
+        IntStream.rangeClosed(1, lines.size())
+                .filter(line -> counts[line] > 0)
+                .boxed()
+                .sorted(Comparator.comparingLong((Integer line) -> counts[line]).reversed())
+                .limit(limit)
+                .forEach(line -> out.println(String.format("%12d  line %d: %s", counts[line], line,
+                        lines.get(line - 1).strip())));
+    }
+
+    private void count(Stmt statement) {
+        statement.accept(this);
+    }
+
+    private void count(Expr expression) {
+        expression.accept(this);
+    }
+
+    private void count(int line, long executions) {
+        if (line > 0 && line < counts.length) counts[line] = Math.max(counts[line], executions);
+    }
+
+    private void note(int line, String note) {
+        if (line > 0 && line < counts.length) notes.get(line).add(note);
+    }
+
+    private static String percent(long part, long whole) {
+        return whole == 0 ? "-" : String.format("%.1f%%", 100.0 * part / whole);
+    }
+
+    /**
+     * The line a node is on: that of its own token, or of the first operand that has one.
+     */
+    private static int line(Expr expression) {
+        return switch (expression) {
+            case Expr.Assign expr -> expr.name.line;
+            case Expr.Binary expr -> expr.operator.line;
+            case Expr.Call expr -> line(expr.callee);
+            case Expr.Get expr -> expr.name.line;
+            case Expr.Grouping expr -> line(expr.expression);
+            case Expr.Literal ignored -> -1;
+            case Expr.Logical expr -> expr.operator.line;
+            case Expr.Set expr -> expr.name.line;
+            case Expr.Super expr -> expr.keyword.line;
+            case Expr.This expr -> expr.keyword.line;
+            case Expr.Unary expr -> expr.operator.line;
+            case Expr.Variable expr -> expr.name.line;
+            default -> -1;
+        };
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        count(expr.name.line, expr.executions);
+        count(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        count(expr.operator.line, expr.executions);
+        count(expr.left);
+        count(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        count(line(expr), expr.executions);
+        count(expr.callee);
+        for (Expr argument : expr.arguments) {
+            count(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        count(expr.name.line, expr.executions);
+        count(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        count(line(expr), expr.executions);
+        count(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        int line = expr.operator.line;
+        count(line, expr.executions);
+        if (expr.executions > 0) {
+            long decided = expr.executions - expr.right.executions;
+            note(line, STR."\{expr.operator.lexeme()}: left side decided \{decided} of \{expr.executions} (\{
+                    percent(decided, expr.executions)})");
+        }
+        count(expr.left);
+        count(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        count(expr.name.line, expr.executions);
+        count(expr.object);
+        count(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        count(expr.keyword.line, expr.executions);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        count(expr.keyword.line, expr.executions);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        count(expr.operator.line, expr.executions);
+        count(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        count(expr.name.line, expr.executions);
+        return null;
+    }
+
+    // A block is spread over lines of its own, its statements count for them.
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) {
+            count(statement);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        count(stmt.name.line, stmt.executions);
+        if (stmt.superclass != null) count(stmt.superclass);
+        for (Stmt.Function method : stmt.methods) {
+            count(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        count(line(stmt.expression), stmt.executions);
+        count(stmt.expression);
+        return null;
+    }
+
+    // Every call runs the first statement of the body, so that's how often the function was called.
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        count(stmt.name.line, stmt.executions);
+        if (!stmt.body.isEmpty()) {
+            long calls = stmt.body.getFirst().executions;
+            note(stmt.name.line, STR."\{stmt.name.lexeme()} called \{calls}x");
+        }
+        for (Stmt statement : stmt.body) {
+            count(statement);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        int line = line(stmt.condition);
+        count(line, stmt.executions);
+        if (stmt.executions > 0) {
+            long taken = stmt.thenBranch.executions;
+            note(line, STR."if: then \{taken} of \{stmt.executions} (\{percent(taken, stmt.executions)})");
+        }
+        count(stmt.condition);
+        count(stmt.thenBranch);
+        if (stmt.elseBranch != null) count(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        count(line(stmt.expression), stmt.executions);
+        count(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        count(stmt.keyword.line, stmt.executions);
+        if (stmt.value != null) count(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        count(stmt.name.line, stmt.executions);
+        if (stmt.initializer != null) count(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int line = line(stmt.condition);
+        count(line, stmt.executions);
+        if (stmt.executions > 0) {
+            long trips = stmt.body.executions;
+            note(line, STR."loop: entered \{stmt.executions}x, \{trips} trips, \{
+                    String.format("%.1f", (double) trips / stmt.executions)} per entry");
+        }
+        count(stmt.condition);
+        count(stmt.body);
+        return null;
+    }
+}
@@ -2,8 +2,11 @@ package com.osskari.lox;
 
 import java.util.List;
 
-abstract class Expr {
-    interface Visitor<R> {
+public abstract class Expr {
+    // How many times the node ran, only counted while the interpreter counts executions.
+    public long executions;
+
+    public interface Visitor<R> {
         R visitAssignExpr(Assign expr);
 
         R visitBinaryExpr(Binary expr);
@@ -29,9 +32,11 @@ abstract class Expr {
         R visitVariableExpr(Variable expr);
 
     }
-    static class Assign extends Expr {
-        final Token name;
-        final Expr value;
+    public static class Assign extends Expr {
+        public final Token name;
+        public final Expr value;
+        public int slot;
+        public int depth = -1;
 
         Assign(Token name, Expr value) {
             this.name = name;
@@ -39,15 +44,15 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitAssignExpr(this);
         }
     }
 
-    static class Binary extends Expr {
-        final Expr left;
-        final Token operator;
-        final Expr right;
+    public static class Binary extends Expr {
+        public final Expr left;
+        public final Token operator;
+        public final Expr right;
 
         Binary(Expr left, Token operator, Expr right) {
             this.left = left;
@@ -56,15 +61,15 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitBinaryExpr(this);
         }
     }
 
-    static class Call extends Expr {
-        final Expr callee;
-        final Token paren;
-        final List<Expr> arguments;
+    public static class Call extends Expr {
+        public final Expr callee;
+        public final Token paren;
+        public final List<Expr> arguments;
 
         Call(Expr callee, Token paren, List<Expr> arguments) {
             this.callee = callee;
@@ -73,14 +78,15 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitCallExpr(this);
         }
     }
 
-    static class Get extends Expr {
-        final Expr object;
-        final Token name;
+    public static class Get extends Expr {
+        public final Expr object;
+        public final Token name;
+        public final InlineCache cache = new InlineCache();
 
         Get(Expr object, Token name) {
             this.object = object;
@@ -88,41 +94,41 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitGetExpr(this);
         }
     }
 
-    static class Grouping extends Expr {
-        final Expr expression;
+    public static class Grouping extends Expr {
+        public final Expr expression;
 
         Grouping(Expr expression) {
             this.expression = expression;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitGroupingExpr(this);
         }
     }
 
-    static class Literal extends Expr {
-        final Object value;
+    public static class Literal extends Expr {
+        public final Object value;
 
         Literal(Object value) {
             this.value = value;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitLiteralExpr(this);
         }
     }
 
-    static class Logical extends Expr {
-        final Expr left;
-        final Token operator;
-        final Expr right;
+    public static class Logical extends Expr {
+        public final Expr left;
+        public final Token operator;
+        public final Expr right;
 
         Logical(Expr left, Token operator, Expr right) {
             this.left = left;
@@ -131,15 +137,15 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitLogicalExpr(this);
         }
     }
 
-    static class Set extends Expr {
-        final Expr object;
-        final Token name;
-        final Expr value;
+    public static class Set extends Expr {
+        public final Expr object;
+        public final Token name;
+        public final Expr value;
 
         Set(Expr object, Token name, Expr value) {
             this.object = object;
@@ -148,14 +154,16 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitSetExpr(this);
         }
     }
 
-    static class Super extends Expr {
-        final Token keyword;
-        final Token method;
+    public static class Super extends Expr {
+        public final Token keyword;
+        public final Token method;
+        public int slot;
+        public int depth = -1;
 
         Super(Token keyword, Token method) {
             this.keyword = keyword;
@@ -163,27 +171,29 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitSuperExpr(this);
         }
     }
 
-    static class This extends Expr {
-        final Token keyword;
+    public static class This extends Expr {
+        public final Token keyword;
+        public int slot;
+        public int depth = -1;
 
         This(Token keyword) {
             this.keyword = keyword;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitThisExpr(this);
         }
     }
 
-    static class Unary extends Expr {
-        final Token operator;
-        final Expr right;
+    public static class Unary extends Expr {
+        public final Token operator;
+        public final Expr right;
 
         Unary(Token operator, Expr right) {
             this.operator = operator;
@@ -191,23 +201,25 @@ abstract class Expr {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitUnaryExpr(this);
         }
     }
 
-    static class Variable extends Expr {
-        final Token name;
+    public static class Variable extends Expr {
+        public final Token name;
+        public int slot;
+        public int depth = -1;
 
         Variable(Token name) {
             this.name = name;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitVariableExpr(this);
         }
     }
 
-    abstract <R> R accept(Visitor<R> visitor);
+    public abstract <R> R accept(Visitor<R> visitor);
 }
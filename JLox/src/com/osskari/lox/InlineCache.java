@@ -0,0 +1,35 @@
+package com.osskari.lox;
+
+/**
+ * Per-site cache of method lookups. Classes never change their methods once created, so the receiver's class alone
+ * decides which method a property access finds. The last few classes seen at a site are remembered. A miss replaces
+ * the oldest entry, so a site that moves on to other classes, like one reading the methods of a class declared inside
+ * a function, caches those and lets go of the classes it no longer sees.
+ */
+final class InlineCache {
+    private static final int MAX_ENTRIES = 4;
+
+    private final LoxClass[] classes = new LoxClass[MAX_ENTRIES];
+    private final LoxFunction[] methods = new LoxFunction[MAX_ENTRIES];
+    private int size = 0;
+    // The entry the next miss replaces once the cache is full.
+    private int oldest = 0;
+
+    LoxFunction findMethod(LoxClass klass, Symbol name) {
+        for (int i = 0; i < size; i++) {
+            if (classes[i] == klass) return methods[i];
+        }
+
+        LoxFunction method = klass.findMethod(name);
+        if (size < MAX_ENTRIES) {
+            classes[size] = klass;
+            methods[size] = method;
+            size++;
+        } else {
+            classes[oldest] = klass;
+            methods[oldest] = method;
+            oldest = (oldest + 1) % MAX_ENTRIES;
+        }
+        return method;
+    }
+}
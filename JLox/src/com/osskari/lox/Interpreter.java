@@ -1,17 +1,38 @@
 package com.osskari.lox;
 
+import com.osskari.lox.jit.FunctionCompiler;
+
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
+/**
+ * Statements evaluate to how they completed instead of throwing: {@link #NORMAL} when execution goes on with the next
+ * statement, anything else is the value of a return statement (null being a returned nil).
+ */
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Object> {
+    static final Object NORMAL = new Object();
+
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
-
-    Interpreter() {
-        globals.define("clock", new LoxCallable() {
+    private final PrintStream out;
+    private final ErrorReporter reporter;
+    // Compiles hot functions to bytecode when set.
+    FunctionCompiler jit = null;
+    // Keeps the stack of Lox calls for sampling when set.
+    Profiler profiler = null;
+    // Counts how many times each node runs when set.
+    boolean counting = false;
+    // How deep calls of Lox functions nest, and how deep they may.
+    int frames = 0;
+    int maxFrames = LoxEngine.DEFAULT_FRAMES;
+
+    Interpreter(PrintStream out, ErrorReporter reporter) {
+        this.out = out;
+        this.reporter = reporter;
+        globals.define(SymbolTable.intern("clock"), new LoxCallable() {
             @Override
             public int arity() {
                 return 0;
@@ -35,17 +56,34 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 execute(statement);
             }
         } catch (RuntimeError error) {
-            Lox.runtimeError(error);
+            reporter.runtimeError(error);
+        } catch (StackOverflowError error) {
+            // The thread's stack ran out before maxFrames calls nested, there's no telling which line was running.
+            reporter.runtimeError("Stack overflow.");
+        } catch (LazyBody.CompileError error) {
+            // Reported as the body was compiled.
         }
     }
 
+    // Global access and output for compiled code, which can't reach the environments.
+    public Object getGlobal(Token name) {
+        return globals.get(name);
+    }
+
+    public void assignGlobal(Token name, Object value) {
+        globals.assign(name, value);
+    }
+
+    public void print(Object value) {
+        out.println(stringify(value));
+    }
+
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.depth >= 0) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
             globals.assign(expr.name, value);
         }
@@ -81,12 +119,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                     return (double) left + (double) right;
                 }
 
-                if (left instanceof String && right instanceof String) {
-                    return left + (String) right;
-                }
-
-                if (left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
+                if (left instanceof CharSequence || right instanceof CharSequence) {
+                    return Rope.concat(text(left), text(right));
                 }
             }
             case MINUS -> {
@@ -117,29 +151,72 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        return call(expr, false);
+    }
+
+    /**
+     * Calls the callee, or only evaluates it and the arguments when the call is a tail call of a Lox function, and
+     * leaves the call to the function returning, see {@link LoxFunction.TailCall}.
+     */
+    private Object call(Expr.Call expr, boolean tail) {
+        // obj.method(...) and super.method(...) call the method with "this" passed along, instead of creating a
+        // bound method only to call it once.
+        if (expr.callee instanceof Expr.Get get) {
+            Object object = evaluate(get.object);
+            if (object instanceof LoxInstance instance && !instance.hasField(get.name)) {
+                return invoke(instance.findMethod(get.name, get.cache), instance, expr, tail);
+            }
+            return call(getProperty(object, get), expr, tail);
+        }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+        if (expr.callee instanceof Expr.Super superExpr) {
+            return invoke(findSuperMethod(superExpr), superThis(superExpr), expr, tail);
         }
 
+        return call(evaluate(expr.callee), expr, tail);
+    }
+
+    private Object invoke(LoxFunction method, LoxInstance instance, Expr.Call expr, boolean tail) {
+        List<Object> arguments = evaluateArguments(expr);
+        checkArity(method, arguments, expr.paren);
+        if (tail) return new LoxFunction.TailCall(method, instance, arguments);
+        return method.call(this, instance, arguments);
+    }
+
+    private Object call(Object callee, Expr.Call expr, boolean tail) {
+        List<Object> arguments = evaluateArguments(expr);
+
         if (!(callee instanceof LoxCallable function)) {
             throw new RuntimeError(expr.paren, "Can only call functions and classes.");
         }
 
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, STR."Expected \{function.arity()} arguments but got \{arguments.size()}.");
+        checkArity(function, arguments, expr.paren);
+        if (tail && function instanceof LoxFunction loxFunction) return loxFunction.tailCall(arguments);
+        return function.call(this, arguments);
+    }
+
+    private List<Object> evaluateArguments(Expr.Call expr) {
+        List<Object> arguments = new ArrayList<>();
+        for (Expr argument : expr.arguments) {
+            arguments.add(evaluate(argument));
         }
+        return arguments;
+    }
 
-        return function.call(this, arguments);
+    private void checkArity(LoxCallable function, List<Object> arguments, Token paren) {
+        if (arguments.size() != function.arity()) {
+            throw new RuntimeError(paren, STR."Expected \{function.arity()} arguments but got \{arguments.size()}.");
+        }
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
+        return getProperty(evaluate(expr.object), expr);
+    }
+
+    private Object getProperty(Object object, Expr.Get expr) {
         if (object instanceof LoxInstance instance) {
-            return instance.get(expr.name);
+            return instance.get(expr.name, expr.cache);
         }
 
         throw new RuntimeError(expr.name, "Only instances have properties.");
@@ -185,21 +262,28 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitSuperExpr(Expr.Super expr) {
-        int distance = locals.get(expr);
-        LoxClass superclass = (LoxClass) environment.getAt(distance, "super");
-        LoxInstance object = (LoxInstance) environment.getAt(distance - 1, "this");
-        LoxFunction method = superclass.findMethod(expr.method.lexeme);
+        return findSuperMethod(expr).bind(superThis(expr));
+    }
+
+    private LoxFunction findSuperMethod(Expr.Super expr) {
+        LoxClass superclass = (LoxClass) environment.getAt(expr.depth, expr.slot);
+        LoxFunction method = superclass.findMethod(expr.method.symbol());
 
         if (method == null) {
-            throw new RuntimeError(expr.method, STR."Undefined property '\{expr.method.lexeme}'.");
+            throw new RuntimeError(expr.method, STR."Undefined property '\{expr.method.lexeme()}'.");
         }
 
-        return method.bind(object);
+        return method;
+    }
+
+    private LoxInstance superThis(Expr.Super expr) {
+        // Methods are declared directly inside the scope holding "super", and "this" is the first slot of a method.
+        return (LoxInstance) environment.getAt(expr.depth - 1, 0);
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.depth, expr.slot);
     }
 
     @Override
@@ -221,26 +305,24 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.depth, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, int depth, int slot) {
+        if (depth >= 0) {
+            return environment.getAt(depth, slot);
         } else {
             return globals.get(name);
         }
     }
 
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Object visitBlockStmt(Stmt.Block stmt) {
+        return executeBlock(stmt.statements, new Environment(environment, stmt.scopeSize));
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
+    public Object visitClassStmt(Stmt.Class stmt) {
         Object superclass = null;
         if (stmt.superclass != null) {
             superclass = evaluate(stmt.superclass);
@@ -249,121 +331,139 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             }
         }
 
-        environment.define(stmt.name.lexeme, null);
+        define(stmt.name, stmt.slot, null);
 
         if (superclass != null) {
-            environment = new Environment(environment);
-            environment.define("super", superclass);
+            environment = new Environment(environment, 1);
+            environment.define(0, superclass);
         }
 
-        Map<String, LoxFunction> methods = new HashMap<>();
+        // Start from the superclass's table so inherited methods are found without walking the hierarchy.
+        Map<Symbol, LoxFunction> methods = superclass == null
+                ? new HashMap<>()
+                : new HashMap<>(((LoxClass) superclass).methods());
         for (Stmt.Function method : stmt.methods) {
-            LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-            methods.put(method.name.lexeme, function);
+            LoxFunction function = new LoxFunction(method, environment, method.name.symbol() == LoxClass.INIT);
+            methods.put(method.name.symbol(), function);
         }
 
-        LoxClass klass = new LoxClass(stmt.name.lexeme, (LoxClass) superclass, methods);
+        LoxClass klass = new LoxClass(stmt.name.lexeme(), stmt.name.line, methods);
 
         if (superclass != null) {
             environment = environment.enclosing;
         }
 
-        environment.assign(stmt.name, klass);
-        return null;
+        define(stmt.name, stmt.slot, klass);
+        return NORMAL;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Object visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Object visitFunctionStmt(Stmt.Function stmt) {
         LoxFunction function = new LoxFunction(stmt, environment, false);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+        define(stmt.name, stmt.slot, function);
+        return NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Object visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+    public Object visitPrintStmt(Stmt.Print stmt) {
+        print(evaluate(stmt.expression));
+        return NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
-        Object value = null;
-        if (stmt != null) value = evaluate(stmt.value);
-
-        throw new Return(value);
+    public Object visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return null;
+        // Returns only occur in functions, and an initializer can't return a value, so a call being returned is one
+        // the function calling this one can make instead.
+        if (stmt.value instanceof Expr.Call call) {
+            if (counting) call.executions++;
+            return call(call, true);
+        }
+        return evaluate(stmt.value);
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Object visitVarStmt(Stmt.Var stmt) {
         Object value = null;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        define(stmt.name, stmt.slot, value);
+        return NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Object visitWhileStmt(Stmt.While stmt) {
         while (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.body);
+            Object result = execute(stmt.body);
+            if (result != NORMAL) return result;
         }
-        return null;
+        return NORMAL;
     }
 
     private Object evaluate(Expr expr) {
+        if (counting) expr.executions++;
         return expr.accept(this);
     }
 
-    private void execute(Stmt statement) {
-        statement.accept(this);
+    private Object execute(Stmt statement) {
+        if (counting) statement.executions++;
+        return statement.accept(this);
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    private void define(Token name, int slot, Object value) {
+        if (slot < 0) {
+            environment.define(name.symbol(), value);
+        } else {
+            environment.define(slot, value);
+        }
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    Object executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
 
         try {
             this.environment = environment;
 
             for (Stmt statement : statements) {
-                execute(statement);
+                Object result = execute(statement);
+                if (result != NORMAL) return result;
             }
+            return NORMAL;
         } finally {
             this.environment = previous;
         }
     }
 
-    private boolean isTruthy(Object object) {
+    static boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
     }
 
-    private boolean isEqual(Object left, Object right) {
+    static boolean isEqual(Object left, Object right) {
         if (left == null && right == null) return true;
         if (left == null) return false;
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+            return left.toString().equals(right.toString());
+        }
 
         return left.equals(right);
     }
@@ -378,7 +478,16 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         throw new RuntimeError(operator, "Operands must be numbers");
     }
 
-    private String stringify(Object object) {
+    // Strings and ropes are concatenated as they are, without flattening a rope.
+    private static CharSequence text(Object object) {
+        if (object instanceof CharSequence text) return text;
+        return stringify(object);
+    }
+
+    /**
+     * How a value prints, and how it reads when concatenated to a string, on every backend.
+     */
+    public static String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
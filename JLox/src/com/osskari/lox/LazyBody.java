@@ -0,0 +1,55 @@
+package com.osskari.lox;
+
+import java.util.List;
+
+/**
+ * The body of a function the parser skipped, kept as where it is in the source until the function is first called.
+ * It's then scanned, parsed, resolved in the scopes the function was declared in and optimized, like it would have
+ * been along with the rest of the script. Errors in it are reported then, in the same words, and stop the script.
+ */
+final class LazyBody {
+    static class CompileError extends RuntimeException {
+        CompileError() {
+            super(null, null, false, false);
+        }
+    }
+
+    private final String source;
+    // From the first character after the opening brace to the closing brace, included.
+    private final int start;
+    private final int end;
+    private final int line;
+    private final ErrorReporter reporter;
+    // Set by the resolver when it comes across the declaration.
+    Resolver.Declaration declaration;
+
+    LazyBody(String source, int start, int end, int line, ErrorReporter reporter) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.line = line;
+        this.reporter = reporter;
+    }
+
+    /**
+     * Compiles the body of the function if it's still lazy. The body is compiled apart and only becomes the function's
+     * once it has compiled without errors. A body with errors stays lazy, so every later call, from a later run of
+     * the same engine too, reports them again instead of running what was parsed of it.
+     */
+    static void ensureParsed(Stmt.Function function) {
+        LazyBody lazy = function.lazy;
+        if (lazy == null) return;
+
+        Scanner scanner = new Scanner(lazy.source.substring(lazy.start, lazy.end), lazy.line, lazy.reporter);
+        List<Stmt> body = new Parser(scanner.scanTokens(), lazy.reporter, true).functionBody();
+        if (lazy.reporter.hadError()) throw new CompileError();
+
+        Stmt.Function compiled = new Stmt.Function(function.name, function.params, body);
+        Resolver.resolveBody(compiled, lazy.declaration, lazy.reporter);
+        if (lazy.reporter.hadError()) throw new CompileError();
+
+        function.body.addAll(new Optimizer().optimize(compiled.body));
+        function.scopeSize = compiled.scopeSize;
+        function.lazy = null;
+    }
+}
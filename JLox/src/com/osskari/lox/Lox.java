@@ -3,82 +3,177 @@ package com.osskari.lox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.Writer;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 public class Lox {
-    private static final Interpreter interpreter = new Interpreter();
-    static boolean hadError = false;
-    static boolean hadRuntimeError = false;
+    private static final Path CACHE_DIRECTORY = Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+    private static final Path PROFILE_FILE = Paths.get("jlox.collapsed");
+    private static final Path COUNTS_FILE = Paths.get("jlox.counts");
+    private static final int HOTTEST_LINES = 10;
 
-    public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
+    public static void main(String[] args) throws IOException, InterruptedException {
+        LoxEngine.Backend backend = LoxEngine.Backend.TREE;
+        boolean mapped = false;
+        ScriptCache cache = null;
+        boolean lazy = false;
+        boolean profile = false;
+        boolean counts = false;
+        int frames = LoxEngine.DEFAULT_FRAMES;
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            switch (arg) {
+                case "--vm" -> backend = LoxEngine.Backend.VM;
+                case "--nodes" -> backend = LoxEngine.Backend.NODES;
+                case "--jit" -> backend = LoxEngine.Backend.JIT;
+                case "--mapped" -> mapped = true;
+                case "--cache" -> cache = new ScriptCache(CACHE_DIRECTORY);
+                case "--lazy" -> lazy = true;
+                case "--profile" -> profile = true;
+                case "--counts" -> counts = true;
+                default -> {
+                    if (arg.startsWith("--frames=")) {
+                        frames = frames(arg);
+                    } else {
+                        scripts.add(arg);
+                    }
+                }
+            }
+        }
+
+        if ((scripts.size() > 1 && (mapped || profile || counts)) || (mapped && counts)) {
+            System.out.println(
+                    "Usage: jlox [--vm | --nodes | --jit] [--cache] [--lazy] [--frames=N] [--profile] [--counts | --mapped] "
+                            + "script");
+            System.out.println("       jlox [--vm | --nodes | --jit] [--cache] [--lazy] [--frames=N] script...");
+            System.out.println("--lazy reports most errors in a function body only when the function is first called.");
             System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
+        } else if (scripts.size() > 1) {
+            runFiles(scripts, backend, cache, lazy, frames);
+        } else if (scripts.size() == 1) {
+            LoxEngine engine = new LoxEngine(backend, System.out, System.err, cache, lazy);
+            engine.limitFrames(frames);
+            Profiler profiler = profile ? new Profiler() : null;
+            if (profiler != null && !engine.profile(profiler)) {
+                System.err.println("Only the tree-walking interpreter and --jit can be profiled.");
+                profiler = null;
+            }
+            if (profiler != null) profiler.start();
+            if (counts && !engine.countExecutions()) {
+                System.err.println("Only the tree-walking interpreter and --jit count executions.");
+            }
+
+            LoxEngine.Result result = mapped
+                    ? engine.runMapped(Paths.get(scripts.getFirst()), Charset.defaultCharset())
+                    : engine.run(readFile(scripts.getFirst()));
+
+            if (profiler != null) report(profiler);
+            if (counts) report(engine.executionReport());
+            exit(result);
         } else {
-            runPrompt();
+            LoxEngine engine = new LoxEngine(backend, System.out, System.err);
+            engine.limitFrames(frames);
+            runPrompt(engine);
         }
     }
 
-    private static void runFile(String path) throws IOException {
-        byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+    /**
+     * Runs the scripts in parallel, each in an engine of its own. The output of each script is printed once it's
+     * done, in the order the scripts were given.
+     */
+    private static void runFiles(List<String> paths, LoxEngine.Backend backend, ScriptCache cache, boolean lazy,
+                                 int frames) throws IOException, InterruptedException {
+        List<Future<LoxExecutor.Outcome>> outcomes = new ArrayList<>();
+        boolean hadError = false;
+        boolean hadRuntimeError = false;
+
+        try (LoxExecutor executor = new LoxExecutor(backend, cache, lazy, frames)) {
+            for (String path : paths) {
+                outcomes.add(executor.submit(readFile(path)));
+            }
+
+            for (Future<LoxExecutor.Outcome> future : outcomes) {
+                LoxExecutor.Outcome outcome = outcome(future);
+                System.out.print(outcome.output());
+                System.err.print(outcome.errors());
+                hadError |= outcome.result() == LoxEngine.Result.COMPILE_ERROR;
+                hadRuntimeError |= outcome.result() == LoxEngine.Result.RUNTIME_ERROR;
+            }
+        }
+
         if (hadError) System.exit(65);
         if (hadRuntimeError) System.exit(70);
     }
 
-    private static void runPrompt() throws IOException {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
-
-        for (; ; ) {
-            System.out.println("> ");
-            String line = reader.readLine();
-            if (line == null) break;
-            run(line);
-            hadError = false;
+    private static int frames(String option) {
+        try {
+            int frames = Integer.parseInt(option.substring("--frames=".length()));
+            if (frames > 0 && frames <= LoxEngine.MAX_FRAMES) return frames;
+        } catch (NumberFormatException e) {
+            // Reported below.
         }
+        System.err.println(STR."\{option} needs a number of frames from 1 to \{LoxEngine.MAX_FRAMES}.");
+        System.exit(64);
+        return 0;
     }
 
-    private static void run(String source) {
-        Scanner scanner = new Scanner(source);
-        List<Token> tokens = scanner.scanTokens();
-        Parser parser = new Parser(tokens);
-        List<Stmt> statements = parser.parse();
-
-        if (hadError) return;
-
-        Resolver resolver = new Resolver(interpreter);
-        resolver.resolve(statements);
-
-        if (hadError) return;
+    // Whatever escaped a script, a StackOverflowError say, ends the program like it does when the script runs alone.
+    private static LoxExecutor.Outcome outcome(Future<LoxExecutor.Outcome> future) throws InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error error) throw error;
+            if (e.getCause() instanceof RuntimeException exception) throw exception;
+            throw new IllegalStateException(e.getCause());
+        }
+    }
 
-        interpreter.interpret(statements);
+    // The table goes to stderr, out of the way of what the script prints.
+    private static void report(Profiler profiler) throws IOException, InterruptedException {
+        profiler.stop();
+        try (Writer writer = Files.newBufferedWriter(PROFILE_FILE)) {
+            profiler.writeCollapsed(writer);
+        }
+        profiler.printTable(System.err);
+        System.err.println(STR."Collapsed stacks written to \{PROFILE_FILE}.");
     }
 
-    static void error(int line, String message) {
-        report(line, "", message);
+    private static void report(ExecutionReport counts) throws IOException {
+        if (counts == null) return;
+        try (Writer writer = Files.newBufferedWriter(COUNTS_FILE)) {
+            counts.write(writer);
+        }
+        System.err.println("Hottest lines:");
+        counts.printHottest(System.err, HOTTEST_LINES);
+        System.err.println(STR."Line counts written to \{COUNTS_FILE}.");
     }
 
-    private static void report(int line, String where, String message) {
-        System.err.println(STR."[line\{line}] Error\{where}: \{message}");
-        hadError = true;
+    private static String readFile(String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        return new String(bytes, Charset.defaultCharset());
     }
 
-    static void error(Token token, String message) {
-        if (token.type == TokenType.EOF) {
-            report(token.line, " at end", message);
-        } else {
-            report(token.line, STR." at '\{token.lexeme}'", message);
-        }
+    private static void exit(LoxEngine.Result result) {
+        if (result == LoxEngine.Result.COMPILE_ERROR) System.exit(65);
+        if (result == LoxEngine.Result.RUNTIME_ERROR) System.exit(70);
     }
 
-    static void runtimeError(RuntimeError error) {
-        System.err.println(STR."\{error.getMessage()}\n[line \{error.token.line}]");
-        hadRuntimeError = true;
+    private static void runPrompt(LoxEngine engine) throws IOException {
+        InputStreamReader input = new InputStreamReader(System.in);
+        BufferedReader reader = new BufferedReader(input);
+
+        for (; ; ) {
+            System.out.println("> ");
+            String line = reader.readLine();
+            if (line == null) break;
+            engine.run(line);
+        }
     }
-}
\ No newline at end of file
+}
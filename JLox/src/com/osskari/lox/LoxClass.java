@@ -4,26 +4,29 @@ import java.util.List;
 import java.util.Map;
 
 public class LoxClass implements LoxCallable {
+    static final Symbol INIT = SymbolTable.intern("init");
+
     final String name;
-    private final LoxClass superclass;
-    private final Map<String, LoxFunction> methods;
+    final int line;
+    private final Map<Symbol, LoxFunction> methods;
+    private final LoxFunction initializer;
 
-    LoxClass(String name, LoxClass superclass, Map<String, LoxFunction> methods) {
+    /**
+     * The method table is flat: inherited methods are already copied in, so lookups never walk the superclass chain.
+     */
+    LoxClass(String name, int line, Map<Symbol, LoxFunction> methods) {
         this.name = name;
-        this.superclass = superclass;
+        this.line = line;
         this.methods = methods;
+        this.initializer = methods.get(INIT);
     }
 
-    LoxFunction findMethod(String name) {
-        if (methods.containsKey(name)) {
-            return methods.get(name);
-        }
-
-        if (superclass != null) {
-            return superclass.findMethod(name);
-        }
+    LoxFunction findMethod(Symbol name) {
+        return methods.get(name);
+    }
 
-        return null;
+    Map<Symbol, LoxFunction> methods() {
+        return methods;
     }
 
     @Override
@@ -33,17 +36,41 @@ public class LoxClass implements LoxCallable {
 
     @Override
     public int arity() {
-        LoxFunction initializer = findMethod("init");
         if (initializer == null) return 0;
         return initializer.arity();
     }
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
+        Events.Instantiation event = new Events.Instantiation();
+        event.begin();
+
+        LoxInstance instance;
+        Profiler profiler = interpreter.profiler;
+        if (profiler == null) {
+            instance = instantiate(interpreter, arguments);
+        } else {
+            profiler.enter(this);
+            try {
+                instance = instantiate(interpreter, arguments);
+            } finally {
+                profiler.exit();
+            }
+        }
+
+        event.end();
+        if (event.shouldCommit()) {
+            event.className = name;
+            event.line = line;
+            event.commit();
+        }
+        return instance;
+    }
+
+    private LoxInstance instantiate(Interpreter interpreter, List<Object> arguments) {
         LoxInstance instance = new LoxInstance(this);
-        LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, arguments);
+            initializer.call(interpreter, instance, arguments);
         }
         return instance;
     }
@@ -0,0 +1,239 @@
+package com.osskari.lox;
+
+import com.osskari.lox.jit.FunctionCompiler;
+import com.osskari.lox.nodes.NodeInterpreter;
+import com.osskari.lox.vm.VM;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * A Lox interpreter to embed in other programs. An engine keeps its globals from one script to the next, prints to
+ * its own output and reports errors to its own error stream. Engines share nothing but the table of interned
+ * identifiers, which lets go of the names no live engine uses, so separate engines can run on separate threads at the
+ * same time, see {@link LoxExecutor}. A single engine runs one script at a time.
+ */
+public final class LoxEngine {
+    /**
+     * How deep calls can nest by default before a script stops with a stack overflow.
+     */
+    public static final int DEFAULT_FRAMES = VM.FRAMES_MAX;
+    /**
+     * The most frames {@link #limitFrames(int)} allows. The bytecode VM's frames and stack need about 128 MB of heap
+     * for this many.
+     */
+    public static final int MAX_FRAMES = 1_000_000;
+
+    // Top-level statements parsed and run together when the script is mapped.
+    private static final int BATCH_SIZE = 1024;
+
+    public enum Backend {
+        TREE,
+        JIT,
+        VM,
+        NODES
+    }
+
+    public enum Result {
+        OK,
+        COMPILE_ERROR,
+        RUNTIME_ERROR
+    }
+
+    private final ErrorReporter reporter;
+    private final ScriptCache cache;
+    private final boolean lazy;
+    private final Interpreter interpreter;
+    private final VM vm;
+    private final NodeInterpreter nodeInterpreter;
+    // The last script run while counting executions.
+    private String countedSource;
+    private List<Stmt> countedStatements;
+
+    public LoxEngine() {
+        this(Backend.TREE, System.out, System.err);
+    }
+
+    public LoxEngine(Backend backend, PrintStream out, PrintStream err) {
+        this(backend, out, err, null);
+    }
+
+    /**
+     * An engine that looks up the statements of the scripts it runs in the cache before compiling them.
+     */
+    public LoxEngine(Backend backend, PrintStream out, PrintStream err, ScriptCache cache) {
+        this(backend, out, err, cache, false);
+    }
+
+    /**
+     * An engine that can parse function bodies lazily, on their first call instead of along with the script. Errors in
+     * a body are then only reported once it's called, after the statements before the call have run. Only the tree
+     * walking backends call functions this way, and cached scripts need all their bodies, so the others and an engine
+     * with a cache parse everything up front anyway.
+     */
+    public LoxEngine(Backend backend, PrintStream out, PrintStream err, ScriptCache cache, boolean lazy) {
+        reporter = new ErrorReporter(err);
+        this.cache = cache;
+        this.lazy = lazy && cache == null && (backend == Backend.TREE || backend == Backend.JIT);
+        interpreter = backend == Backend.TREE || backend == Backend.JIT ? new Interpreter(out, reporter) : null;
+        vm = backend == Backend.VM ? new VM(out, reporter) : null;
+        nodeInterpreter = backend == Backend.NODES ? new NodeInterpreter(out, reporter) : null;
+
+        if (backend == Backend.JIT) interpreter.jit = new FunctionCompiler();
+    }
+
+    /**
+     * Keeps the stack of Lox calls for the profiler while scripts run. Only the tree walking backends keep it.
+     *
+     * @return whether the backend keeps the stack
+     */
+    public boolean profile(Profiler profiler) {
+        if (interpreter == null) return false;
+        interpreter.profiler = profiler;
+        return true;
+    }
+
+    /**
+     * Limits how deep calls of Lox functions can nest before a script stops with a stack overflow, which is reported
+     * like any other runtime error. The bytecode VM keeps its frames on the heap. The other backends nest several
+     * Java frames per call on the thread running the script, and also stop with a stack overflow when that thread's
+     * stack runs out first, so going deeper with them takes a larger stack too, set with -Xss.
+     */
+    public void limitFrames(int frames) {
+        if (frames < 1 || frames > MAX_FRAMES) {
+            throw new IllegalArgumentException(STR."A script can nest 1 to \{MAX_FRAMES} frames, not \{frames}.");
+        }
+        if (interpreter != null) interpreter.maxFrames = frames;
+        if (vm != null) vm.limitFrames(frames);
+        if (nodeInterpreter != null) nodeInterpreter.limitFrames(frames);
+    }
+
+    /**
+     * Counts how many times each statement and expression runs, for {@link #executionReport()}. Only the tree walking
+     * interpreter counts, so with the JIT backend functions stay interpreted.
+     *
+     * @return whether the backend counts
+     */
+    public boolean countExecutions() {
+        if (interpreter == null) return false;
+        interpreter.counting = true;
+        interpreter.jit = null;
+        return true;
+    }
+
+    /**
+     * The counts of the last script run since {@link #countExecutions()}, or null if none ran.
+     */
+    public ExecutionReport executionReport() {
+        if (countedStatements == null) return null;
+        return new ExecutionReport(countedSource, countedStatements);
+    }
+
+    public Result run(String source) {
+        reporter.reset();
+
+        List<Stmt> statements = cache != null ? cache.load(source) : null;
+        if (statements == null) {
+            Events.Phase scan = new Events.Phase();
+            scan.begin();
+            Scanner scanner = new Scanner(source, reporter);
+            List<Token> tokens = scanner.scanTokens();
+            commit(scan, "scan");
+
+            Events.Phase parse = new Events.Phase();
+            parse.begin();
+            Parser parser = new Parser(tokens, reporter, lazy);
+            statements = parser.parse();
+            commit(parse, "parse");
+
+            statements = compile(statements);
+
+            if (reporter.hadError()) return result();
+            if (cache != null) cache.store(source, statements);
+        }
+
+        if (interpreter != null && interpreter.counting) {
+            countedSource = source;
+            countedStatements = statements;
+        }
+        interpret(statements);
+        return result();
+    }
+
+    /**
+     * Maps the script instead of reading it into memory, and runs it a batch of top-level statements at a time as
+     * they're parsed. Memory use doesn't grow with the size of the script, but a syntax error only stops the script
+     * once execution reaches it.
+     */
+    public Result runMapped(Path path, Charset charset) throws IOException {
+        reporter.reset();
+
+        try (MappedSource source = MappedSource.open(path, charset)) {
+            Parser parser = new Parser(new Scanner(source, reporter), reporter);
+            while (!reporter.hadError() && !reporter.hadRuntimeError()) {
+                Events.Phase parse = new Events.Phase();
+                parse.begin();
+                List<Stmt> statements = parser.parse(BATCH_SIZE);
+                commit(parse, "parse");
+                if (statements.isEmpty()) break;
+                if (reporter.hadError()) break;
+
+                statements = compile(statements);
+                if (!reporter.hadError()) interpret(statements);
+            }
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        return result();
+    }
+
+    /**
+     * Resolves and optimizes parsed statements.
+     */
+    private List<Stmt> compile(List<Stmt> statements) {
+        if (reporter.hadError()) return statements;
+
+        Events.Phase resolve = new Events.Phase();
+        resolve.begin();
+        Resolver resolver = new Resolver(reporter);
+        resolver.resolve(statements);
+        commit(resolve, "resolve");
+
+        if (reporter.hadError()) return statements;
+
+        Events.Phase optimize = new Events.Phase();
+        optimize.begin();
+        List<Stmt> optimized = new Optimizer().optimize(statements);
+        commit(optimize, "optimize");
+        return optimized;
+    }
+
+    private static void commit(Events.Phase event, String phase) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.phase = phase;
+            event.commit();
+        }
+    }
+
+    private void interpret(List<Stmt> statements) {
+        if (vm != null) {
+            vm.interpret(statements);
+        } else if (nodeInterpreter != null) {
+            nodeInterpreter.interpret(statements);
+        } else {
+            interpreter.interpret(statements);
+        }
+    }
+
+    private Result result() {
+        if (reporter.hadError()) return Result.COMPILE_ERROR;
+        if (reporter.hadRuntimeError()) return Result.RUNTIME_ERROR;
+        return Result.OK;
+    }
+}
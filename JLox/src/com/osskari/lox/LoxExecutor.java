@@ -0,0 +1,77 @@
+package com.osskari.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs scripts in parallel, each in an engine of its own on a virtual thread of its own. Scripts don't see each
+ * other's globals, output or errors, and the virtual threads are spread over all cores of the JVM.
+ */
+public final class LoxExecutor implements AutoCloseable {
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+    private final LoxEngine.Backend backend;
+    private final ScriptCache cache;
+    private final boolean lazy;
+    private final int maxFrames;
+
+    public LoxExecutor(LoxEngine.Backend backend) {
+        this(backend, null, false, LoxEngine.DEFAULT_FRAMES);
+    }
+
+    /**
+     * Runs scripts in engines with the cache, lazy parsing of function bodies and limit of frames, see
+     * {@link LoxEngine}.
+     */
+    public LoxExecutor(LoxEngine.Backend backend, ScriptCache cache, boolean lazy, int maxFrames) {
+        this.backend = backend;
+        this.cache = cache;
+        this.lazy = lazy;
+        this.maxFrames = maxFrames;
+    }
+
+    /**
+     * Runs the script with what it prints and reports collected, to be looked at once it's done.
+     */
+    public Future<Outcome> submit(String source) {
+        return executor.submit(() -> {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            ByteArrayOutputStream errors = new ByteArrayOutputStream();
+            LoxEngine.Result result;
+            try (PrintStream out = new PrintStream(output, false, StandardCharsets.UTF_8);
+                 PrintStream err = new PrintStream(errors, false, StandardCharsets.UTF_8)) {
+                result = engine(out, err).run(source);
+            }
+
+            return new Outcome(result, output.toString(StandardCharsets.UTF_8),
+                    errors.toString(StandardCharsets.UTF_8));
+        });
+    }
+
+    /**
+     * Runs the script printing straight to the given streams, which other scripts may be printing to at the same time.
+     */
+    public Future<LoxEngine.Result> submit(String source, PrintStream out, PrintStream err) {
+        return executor.submit(() -> engine(out, err).run(source));
+    }
+
+    private LoxEngine engine(PrintStream out, PrintStream err) {
+        LoxEngine engine = new LoxEngine(backend, out, err, cache, lazy);
+        engine.limitFrames(maxFrames);
+        return engine;
+    }
+
+    /**
+     * Waits for every script submitted so far to finish.
+     */
+    @Override
+    public void close() {
+        executor.close();
+    }
+
+    public record Outcome(LoxEngine.Result result, String output, String errors) {
+    }
+}
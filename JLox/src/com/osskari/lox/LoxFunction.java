@@ -1,16 +1,35 @@
 package com.osskari.lox;
 
+import com.osskari.lox.jit.CompiledFunction;
+
 import java.util.List;
 
 public class LoxFunction implements LoxCallable {
+    /**
+     * A call a function returns instead of making it, since it would only return what the call returns. The function
+     * that called it makes the call in its place, so a chain of tail calls takes a single Java frame however long it
+     * is.
+     */
+    record TailCall(LoxFunction function, LoxInstance thisValue, List<Object> arguments) {
+        Object make(Interpreter interpreter) {
+            return function.call(interpreter, thisValue, arguments);
+        }
+    }
+
     private final Stmt.Function declaration;
     private final Environment closure;
     private final boolean isInitializer;
+    private final LoxInstance receiver;
 
     LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer) {
+        this(declaration, closure, isInitializer, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, LoxInstance receiver) {
         this.declaration = declaration;
         this.closure = closure;
         this.isInitializer = isInitializer;
+        this.receiver = receiver;
     }
 
     @Override
@@ -20,30 +39,120 @@ public class LoxFunction implements LoxCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
-        }
+        return call(interpreter, receiver, arguments);
+    }
 
+    /**
+     * Calls the function with "this" bound to the given instance. Methods keep "this" in slot 0 of their own
+     * environment, ahead of the parameters, so a method can be invoked on an instance without binding it first.
+     * <p>
+     * Tail calls the function returns are made here, one after the other, and each of them is a call of its own for
+     * the profiler and Flight Recorder. Compiled code linked straight to a compiled function hands the tail calls it
+     * gets back to this method, so the same holds with the JIT. They take the frame of the call that returned them, so
+     * they don't count towards the interpreter's limit of frames either.
+     */
+    Object call(Interpreter interpreter, LoxInstance thisValue, List<Object> arguments) {
+        enterFrame(interpreter);
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "init");
-            return returnValue.value;
+            Object result = callOnce(interpreter, thisValue, arguments);
+            while (result instanceof TailCall tail) {
+                result = tail.function.callOnce(interpreter, tail.thisValue, tail.arguments);
+            }
+            return result;
+        } finally {
+            interpreter.frames--;
         }
+    }
+
+    /**
+     * Counts a call of the function towards the interpreter's limit of frames, whoever makes it. The caller leaves the
+     * frame again.
+     */
+    void enterFrame(Interpreter interpreter) {
+        if (interpreter.frames == interpreter.maxFrames) {
+            throw new RuntimeError(declaration.name, "Stack overflow.");
+        }
+        interpreter.frames++;
+    }
+
+    /**
+     * A call of the function that the function returning makes in its place.
+     */
+    TailCall tailCall(List<Object> arguments) {
+        return new TailCall(this, receiver, arguments);
+    }
+
+    private Object callOnce(Interpreter interpreter, LoxInstance thisValue, List<Object> arguments) {
+        Events.Call event = new Events.Call();
+        event.begin();
+
+        Object result;
+        Profiler profiler = interpreter.profiler;
+        if (profiler == null) {
+            result = invoke(interpreter, thisValue, arguments);
+        } else {
+            profiler.enter(declaration);
+            try {
+                result = invoke(interpreter, thisValue, arguments);
+            } finally {
+                profiler.exit();
+            }
+        }
+
+        commit(event);
+        return result;
+    }
+
+    /**
+     * Ends the event of a call of the function, and commits it if it's being recorded.
+     */
+    void commit(Events.Call event) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.function = declaration.name.lexeme();
+            event.arity = declaration.params.size();
+            event.line = declaration.name.line;
+            event.commit();
+        }
+    }
+
+    private Object invoke(Interpreter interpreter, LoxInstance thisValue, List<Object> arguments) {
+        LazyBody.ensureParsed(declaration);
+
+        if (thisValue == null && interpreter.jit != null) {
+            CompiledFunction compiled = interpreter.jit.compiled(declaration);
+            if (compiled != null) return compiled.call(interpreter, arguments);
+        }
+
+        Environment environment = new Environment(closure, declaration.scopeSize);
+        int first = 0;
+        if (thisValue != null) {
+            environment.define(0, thisValue);
+            first = 1;
+        }
+        for (int i = 0; i < declaration.params.size(); i++) {
+            environment.define(first + i, arguments.get(i));
+        }
+
+        Object result = interpreter.executeBlock(declaration.body, environment);
+
+        if (isInitializer) return thisValue;
+        return result == Interpreter.NORMAL ? null : result;
+    }
 
-        if (isInitializer) return closure.getAt(0, "this");
-        return null;
+    /**
+     * The compiled code of the function, if it has been compiled yet. Bound methods are never compiled.
+     */
+    CompiledFunction compiled() {
+        return receiver == null ? declaration.compiled : null;
     }
 
     public LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer);
+        return new LoxFunction(declaration, closure, isInitializer, instance);
     }
 
     @Override
     public String toString() {
-        return STR."<fn \{declaration.name.lexeme}>";
+        return STR."<fn \{declaration.name.lexeme()}>";
     }
 }
@@ -4,26 +4,44 @@ import java.util.HashMap;
 import java.util.Map;
 
 public class LoxInstance {
-    private final LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    final LoxClass klass;
+    private final Map<Symbol, Object> fields = new HashMap<>();
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
     }
 
-    Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
-        }
+    Object get(Token name, InlineCache cache) {
+        Object value = fields.get(name.symbol());
+        if (value != null || fields.containsKey(name.symbol())) return value;
 
-        LoxFunction method = klass.findMethod(name.lexeme);
-        if (method != null) return method.bind(this);
+        return findMethod(name, cache).bind(this);
+    }
+
+    /**
+     * Property lookup with the method already found for this instance's class, null if it has none.
+     */
+    Object get(Token name, LoxFunction method) {
+        Object value = fields.get(name.symbol());
+        if (value != null || fields.containsKey(name.symbol())) return value;
+
+        if (method == null) throw new RuntimeError(name, STR."Undefined property '\{name.lexeme()}'.");
+        return method.bind(this);
+    }
+
+    boolean hasField(Token name) {
+        return fields.containsKey(name.symbol());
+    }
+
+    LoxFunction findMethod(Token name, InlineCache cache) {
+        LoxFunction method = cache.findMethod(klass, name.symbol());
+        if (method != null) return method;
 
-        throw new RuntimeError(name, STR."Undefined property '\{name.lexeme}'.");
+        throw new RuntimeError(name, STR."Undefined property '\{name.lexeme()}'.");
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        fields.put(name.symbol(), value);
     }
 
     @Override
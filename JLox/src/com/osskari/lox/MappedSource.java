@@ -0,0 +1,74 @@
+package com.osskari.lox;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A script file read through memory mappings instead of being loaded into the heap. The file is mapped a region at a
+ * time and decoded on demand into the scanner's window, so neither the bytes nor the decoded text of the whole file
+ * are ever held at once.
+ */
+final class MappedSource implements Closeable {
+    private static final long REGION_SIZE = 64L * 1024 * 1024;
+
+    private final FileChannel channel;
+    private final CharsetDecoder decoder;
+    private final long size;
+    private MappedByteBuffer region;
+    private long regionStart = 0;
+    private boolean flushed = false;
+
+    private MappedSource(FileChannel channel, Charset charset) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        // Same as new String(bytes, charset): malformed input becomes the replacement character.
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    }
+
+    static MappedSource open(Path path, Charset charset) throws IOException {
+        return new MappedSource(FileChannel.open(path, StandardOpenOption.READ), charset);
+    }
+
+    /**
+     * Decodes more of the file into the buffer, until it's full or the file ends. A character that takes two chars
+     * isn't split, when only one is free it's left for the next read. Returns false when nothing was decoded, so the
+     * buffer needs two free chars to tell that from the end of the file.
+     */
+    boolean read(CharBuffer out) throws IOException {
+        int before = out.position();
+        while (out.hasRemaining() && !flushed) {
+            // Map the next region once this one is used up. A character split across the end of a region is left
+            // undecoded by the decoder, the next region starts at its first byte.
+            if (region == null || !region.hasRemaining() || region.remaining() < 4 && !isLastRegion()) {
+                regionStart = region == null ? 0 : regionStart + region.position();
+                region = channel.map(FileChannel.MapMode.READ_ONLY, regionStart,
+                        Math.min(REGION_SIZE, size - regionStart));
+            }
+
+            if (decoder.decode(region, out, isLastRegion()).isOverflow()) break;
+            if (isLastRegion() && !region.hasRemaining()) {
+                flushed = decoder.flush(out).isUnderflow();
+            }
+        }
+        return out.position() > before;
+    }
+
+    private boolean isLastRegion() {
+        return regionStart + region.limit() == size;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
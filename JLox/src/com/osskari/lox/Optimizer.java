@@ -0,0 +1,309 @@
+package com.osskari.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Simplifies resolved statements before they run: arithmetic, comparisons and concatenations of literals are folded
+ * into literals, logical operators with a literal on the left are reduced to the side they evaluate to, and branches
+ * and loops whose condition is a literal lose the parts that can never run. Folding works bottom up, so a folded
+ * operand feeds the fold of the expression around it.
+ * <p>
+ * Nothing that can fail at runtime is folded, division by zero and operands of the wrong type are left for the
+ * interpreter to report. Nodes that don't change are kept, rebuilt nodes get the resolver's slots and depths of the
+ * nodes they replace.
+ * <p>
+ * Statements that do nothing optimize to null, which lists drop and branches and loop bodies replace with an empty
+ * block.
+ */
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    List<Stmt> optimize(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if (result != null) optimized.add(result);
+            changed |= result != statement;
+        }
+
+        return changed ? optimized : statements;
+    }
+
+    private Stmt optimize(Stmt statement) {
+        return statement.accept(this);
+    }
+
+    private Expr optimize(Expr expression) {
+        return expression.accept(this);
+    }
+
+    // A branch or loop body has to be a statement, even when it does nothing.
+    private Stmt optimizeBody(Stmt statement) {
+        Stmt result = optimize(statement);
+        return result != null ? result : new Stmt.Block(List.of());
+    }
+
+    private List<Expr> optimizeAll(List<Expr> expressions) {
+        List<Expr> optimized = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for (Expr expression : expressions) {
+            Expr result = optimize(expression);
+            optimized.add(result);
+            changed |= result != expression;
+        }
+
+        return changed ? optimized : expressions;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+
+        Expr.Assign assign = new Expr.Assign(expr.name, value);
+        assign.slot = expr.slot;
+        assign.depth = expr.depth;
+        return assign;
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal a && right instanceof Expr.Literal b) {
+            Expr folded = fold(expr.operator, a.value, b.value);
+            if (folded != null) return folded;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    /**
+     * The literal the operator evaluates to with these operands, null when evaluating it would be a runtime error.
+     */
+    private Expr fold(Token operator, Object left, Object right) {
+        switch (operator.type) {
+            case BANG_EQUAL -> {
+                return new Expr.Literal(!Interpreter.isEqual(left, right));
+            }
+            case EQUAL_EQUAL -> {
+                return new Expr.Literal(Interpreter.isEqual(left, right));
+            }
+            case PLUS -> {
+                if (left instanceof Double a && right instanceof Double b) return new Expr.Literal(a + b);
+                if (left instanceof String || right instanceof String) {
+                    return new Expr.Literal(Interpreter.stringify(left) + Interpreter.stringify(right));
+                }
+                // Any other mix of operands evaluates to nil.
+                return new Expr.Literal(null);
+            }
+        }
+
+        if (!(left instanceof Double a) || !(right instanceof Double b)) return null;
+
+        return switch (operator.type) {
+            case GREATER -> new Expr.Literal(a > b);
+            case GREATER_EQUAL -> new Expr.Literal(a >= b);
+            case LESS -> new Expr.Literal(a < b);
+            case LESS_EQUAL -> new Expr.Literal(a <= b);
+            case MINUS -> new Expr.Literal(a - b);
+            case STAR -> new Expr.Literal(a * b);
+            case SLASH -> b == 0 ? null : new Expr.Literal(a / b);
+            default -> null;
+        };
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = optimizeAll(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments) return expr;
+
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+
+        return new Expr.Get(object, expr.name);
+    }
+
+    // Parentheses only mattered to the parser.
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // The left operand decides on its own whether it's the result or the right operand is.
+        if (left instanceof Expr.Literal literal) {
+            boolean isResult = expr.operator.type == TokenType.OR
+                    ? Interpreter.isTruthy(literal.value)
+                    : !Interpreter.isTruthy(literal.value);
+            return isResult ? left : right;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitSuperExpr(Expr.Super expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal literal) {
+            if (expr.operator.type == TokenType.BANG) return new Expr.Literal(!Interpreter.isTruthy(literal.value));
+            if (literal.value instanceof Double number) return new Expr.Literal(-number);
+        }
+
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimize(stmt.statements);
+        if (statements.isEmpty()) return null;
+        if (statements == stmt.statements) return stmt;
+
+        Stmt.Block block = new Stmt.Block(statements);
+        block.scopeSize = stmt.scopeSize;
+        return block;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+        boolean changed = false;
+        for (Stmt.Function method : stmt.methods) {
+            Stmt.Function result = optimizeFunction(method);
+            methods.add(result);
+            changed |= result != method;
+        }
+        if (!changed) return stmt;
+
+        Stmt.Class klass = new Stmt.Class(stmt.name, stmt.superclass, methods);
+        klass.slot = stmt.slot;
+        return klass;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression instanceof Expr.Literal) return null;
+        if (expression == stmt.expression) return stmt;
+
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return optimizeFunction(stmt);
+    }
+
+    private Stmt.Function optimizeFunction(Stmt.Function stmt) {
+        List<Stmt> body = optimize(stmt.body);
+        if (body == stmt.body) return stmt;
+
+        Stmt.Function function = new Stmt.Function(stmt.name, stmt.params, body);
+        function.slot = stmt.slot;
+        function.scopeSize = stmt.scopeSize;
+        return function;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+
+        if (condition instanceof Expr.Literal literal) {
+            if (Interpreter.isTruthy(literal.value)) return optimize(stmt.thenBranch);
+            return stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        }
+
+        Stmt thenBranch = optimizeBody(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch != null ? optimize(stmt.elseBranch) : null;
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+
+        Stmt.Var var = new Stmt.Var(stmt.name, initializer);
+        var.slot = stmt.slot;
+        return var;
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal literal && !Interpreter.isTruthy(literal.value)) return null;
+
+        Stmt body = optimizeBody(stmt.body);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+
+        return new Stmt.While(condition, body);
+    }
+}
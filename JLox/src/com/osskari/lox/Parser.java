@@ -3,6 +3,7 @@ package com.osskari.lox;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.function.Supplier;
 
 interface Function {
     Expr invoke();
@@ -12,28 +13,86 @@ class Parser {
     private static class ParseError extends RuntimeException {
     }
 
-    private final List<Token> tokens;
-    private int current = 0;
+    // Thrown past every statement once nesting goes too deep, there's no statement boundary inside it to pick up from.
+    private static class NestingError extends RuntimeException {
+    }
+
+    // How deep statements and expressions can nest. The resolver, the optimizer, the compilers and the tree walking
+    // backends all recurse once per level, this keeps them well inside the JVM's default stack.
+    private static final int MAX_NESTING = 256;
+
+    // The parser never looks further back than the previous token or further ahead than the next one, so it can
+    // take its tokens straight from the scanner.
+    private final Supplier<Token> tokens;
+    private final ErrorReporter reporter;
+    // Lazy parsing skips function bodies, which needs all the tokens in a list. The position is that of the next one.
+    private final List<Token> list;
+    private final boolean lazy;
+    private int position = 0;
+    private Token previous;
+    private Token next;
+    private int nesting = 0;
+
+    Parser(List<Token> tokens, ErrorReporter reporter) {
+        this(tokens, reporter, false);
+    }
+
+    /**
+     * A lazy parser only finds the closing brace of function bodies, and leaves parsing them to the first call.
+     */
+    Parser(List<Token> tokens, ErrorReporter reporter, boolean lazy) {
+        this.tokens = () -> tokens.get(++position);
+        this.reporter = reporter;
+        this.list = tokens;
+        this.lazy = lazy;
+        this.next = tokens.getFirst();
+    }
 
-    Parser(List<Token> tokens) {
-        this.tokens = tokens;
+    Parser(Scanner scanner, ErrorReporter reporter) {
+        this.tokens = scanner::nextToken;
+        this.reporter = reporter;
+        this.list = null;
+        this.lazy = false;
+        this.next = tokens.get();
     }
 
     List<Stmt> parse() {
+        return parse(Integer.MAX_VALUE);
+    }
+
+    /**
+     * Parses at most the given number of top-level declarations, fewer only at the end of the tokens.
+     */
+    List<Stmt> parse(int limit) {
         List<Stmt> statements = new ArrayList<>();
-        while (!isAtEnd()) {
-            statements.add(declaration());
+        try {
+            while (!isAtEnd() && statements.size() < limit) {
+                statements.add(declaration());
+            }
+        } catch (NestingError error) {
+            // Reported where it nested too deep, the rest of the script goes unparsed.
         }
         return statements;
     }
 
-    static ParseError error(Token token, String message) {
-        Lox.error(token, message);
+    /**
+     * Parses the body of a lazy function from tokens that start after its opening brace.
+     */
+    List<Stmt> functionBody() {
+        try {
+            return block();
+        } catch (ParseError | NestingError error) {
+            return List.of();
+        }
+    }
+
+    private ParseError error(Token token, String message) {
+        reporter.error(token, message);
         return new ParseError();
     }
 
-    static void silentError(Token token, String message) {
-        Lox.error(token, message);
+    private void silentError(Token token, String message) {
+        reporter.error(token, message);
     }
 
     private Expr expression() {
@@ -79,6 +138,16 @@ class Parser {
         return new Stmt.Class(name, superclass, methods);
     }
 
+    // The body of a branch or a loop, a statement nested in another one.
+    private Stmt body() {
+        enter();
+        try {
+            return statement();
+        } finally {
+            nesting--;
+        }
+    }
+
     private Stmt statement() {
         if (match(TokenType.FOR)) return forStatement();
         if (match(TokenType.IF)) return ifStatement();
@@ -113,7 +182,7 @@ class Parser {
         }
         consume(TokenType.RIGHT_PAREN, "Expected ')' after for clauses.");
 
-        Stmt body = statement();
+        Stmt body = body();
 
         if (increment != null) {
             body = new Stmt.Block(Arrays.asList(
@@ -139,10 +208,10 @@ class Parser {
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN, "Expected ')' after condition.");
 
-        Stmt thenBranch = statement();
+        Stmt thenBranch = body();
         Stmt elseBranch = null;
         if (match(TokenType.ELSE)) {
-            elseBranch = statement();
+            elseBranch = body();
         }
 
         return new Stmt.If(condition, thenBranch, elseBranch);
@@ -169,7 +238,7 @@ class Parser {
         consume(TokenType.LEFT_PAREN, "Expected '(' after 'while'.");
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN, "Expected ')' after condition.");
-        Stmt body = statement();
+        Stmt body = body();
 
         return new Stmt.While(condition, body);
     }
@@ -207,20 +276,75 @@ class Parser {
         }
         consume(TokenType.RIGHT_PAREN, "Expected ')' after parameters.");
 
-        consume(TokenType.LEFT_BRACE, STR."Expected '{' before \{kind} body");
+        Token open = consume(TokenType.LEFT_BRACE, STR."Expected '{' before \{kind} body");
+        int end = lazy && open.source() != null ? closingBrace() : -1;
+        if (end >= 0) {
+            // Only where the body is in the source is kept, its tokens would take more memory than its statements.
+            Token close = list.get(end);
+            Stmt.Function function = new Stmt.Function(name, parameters, new ArrayList<>());
+            function.lazy = new LazyBody(open.source(), open.offset() + 1, close.offset() + 1, open.line, reporter);
+
+            position = end;
+            next = close;
+            advance();
+            return function;
+        }
+
         List<Stmt> body = block();
         return new Stmt.Function(name, parameters, body);
     }
 
+    /**
+     * The position of the brace closing the body the next token is in, or -1 when the tokens end first or the
+     * parentheses in the body don't match. Such a body is parsed right away, so it reports its errors before the
+     * script runs, like it always did. The scanner has already been over every body, and reported its errors up front.
+     */
+    private int closingBrace() {
+        int depth = 0;
+        int parentheses = 0;
+        for (int i = position; list.get(i).type != TokenType.EOF; i++) {
+            TokenType type = list.get(i).type;
+            if (type == TokenType.LEFT_PAREN) {
+                parentheses++;
+            } else if (type == TokenType.RIGHT_PAREN) {
+                if (parentheses-- == 0) return -1;
+            } else if (type == TokenType.LEFT_BRACE || type == TokenType.RIGHT_BRACE) {
+                // Braces only ever open and close statements, there are none inside parentheses.
+                if (parentheses != 0) return -1;
+                if (type == TokenType.LEFT_BRACE) {
+                    depth++;
+                } else if (depth-- == 0) {
+                    return i;
+                }
+            }
+        }
+        return -1;
+    }
+
     private List<Stmt> block() {
-        List<Stmt> statements = new ArrayList<>();
+        enter();
+        try {
+            List<Stmt> statements = new ArrayList<>();
 
-        while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
-            statements.add(declaration());
+            while (!check(TokenType.RIGHT_BRACE) && !isAtEnd()) {
+                statements.add(declaration());
+            }
+
+            consume(TokenType.RIGHT_BRACE, "Expected '}' after block");
+            return statements;
+        } finally {
+            nesting--;
         }
+    }
 
-        consume(TokenType.RIGHT_BRACE, "Expected '}' after block");
-        return statements;
+    // Every level of nesting goes through a block, the body of a branch or a loop, a unary expression, an assignment
+    // or a link in a chain of operators, calls or property accesses once, parentheses and arguments included.
+    private void enter() {
+        if (++nesting > MAX_NESTING) {
+            nesting--;
+            reporter.error(peek(), "Too much nesting.");
+            throw new NestingError();
+        }
     }
 
     private Expr assignment() {
@@ -228,7 +352,14 @@ class Parser {
 
         if (match(TokenType.EQUAL)) {
             Token equals = previous();
-            Expr right = assignment();
+            // Assignments chain to the right, every one nests the next a level deeper.
+            enter();
+            Expr right;
+            try {
+                right = assignment();
+            } finally {
+                nesting--;
+            }
 
             if (left instanceof Expr.Variable) {
                 Token name = ((Expr.Variable) left).name;
@@ -283,13 +414,18 @@ class Parser {
     }
 
     private Expr unary() {
-        if (match(TokenType.BANG, TokenType.MINUS)) {
-            Token operator = previous();
-            Expr right = unary();
-            return new Expr.Unary(operator, right);
-        }
+        enter();
+        try {
+            if (match(TokenType.BANG, TokenType.MINUS)) {
+                Token operator = previous();
+                Expr right = unary();
+                return new Expr.Unary(operator, right);
+            }
 
-        return call();
+            return call();
+        } finally {
+            nesting--;
+        }
     }
 
     private Expr finishCall(Expr callee) {
@@ -311,17 +447,27 @@ class Parser {
     private Expr call() {
         Expr expr = primary();
 
-        while (true) {
-            if (match(TokenType.LEFT_PAREN)) {
-                expr = finishCall(expr);
-            } else if (match(TokenType.DOT)) {
-                Token name = consume(TokenType.IDENTIFIER, "Expected property name after '.'.");
-                expr = new Expr.Get(expr, name);
-            } else {
-                break;
+        // Every call and property access in a chain wraps the ones before it a level deeper.
+        int levels = 0;
+        try {
+            while (true) {
+                if (match(TokenType.LEFT_PAREN)) {
+                    enter();
+                    levels++;
+                    expr = finishCall(expr);
+                } else if (match(TokenType.DOT)) {
+                    enter();
+                    levels++;
+                    Token name = consume(TokenType.IDENTIFIER, "Expected property name after '.'.");
+                    expr = new Expr.Get(expr, name);
+                } else {
+                    break;
+                }
             }
+            return expr;
+        } finally {
+            nesting -= levels;
         }
-        return expr;
     }
 
     private Expr primary() {
@@ -360,13 +506,21 @@ class Parser {
     private Expr leftAssociativeInstruction(Function childGrammar, TokenType... tokensToMatch) {
         Expr left = childGrammar.invoke();
 
-        while (match(tokensToMatch)) {
-            Token operator = previous();
-            Expr right = childGrammar.invoke();
+        // Every operator in a chain wraps the operations before it a level deeper.
+        int levels = 0;
+        try {
+            while (match(tokensToMatch)) {
+                enter();
+                levels++;
+                Token operator = previous();
+                Expr right = childGrammar.invoke();
 
-            left = new Expr.Binary(left, operator, right);
+                left = new Expr.Binary(left, operator, right);
+            }
+            return left;
+        } finally {
+            nesting -= levels;
         }
-        return left;
     }
 
     private boolean match(TokenType... types) {
@@ -385,8 +539,11 @@ class Parser {
     }
 
     private Token advance() {
-        if (!isAtEnd()) current++;
-        return previous();
+        if (!isAtEnd()) {
+            previous = next;
+            next = tokens.get();
+        }
+        return previous;
     }
 
     private boolean isAtEnd() {
@@ -394,11 +551,11 @@ class Parser {
     }
 
     private Token peek() {
-        return tokens.get(current);
+        return next;
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return previous;
     }
 
     private Token consume(TokenType type, String message) {
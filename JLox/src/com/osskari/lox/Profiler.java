@@ -0,0 +1,170 @@
+package com.osskari.lox;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Samples where a running script is in its Lox code. Calls of functions and classes push what they call onto a shadow
+ * stack and pop it when they return, and a sampler thread copies that stack every {@link #INTERVAL}. Frames are named
+ * after the function or class and the line it was declared on, like fib:3.
+ * <p>
+ * The samples give collapsed stacks for flame graphs, one line per distinct stack with the number of times it was
+ * seen, and a table of the time spent in each function itself and in it and what it called.
+ * <p>
+ * The sampler reads the stack while the interpreter changes it, without locking, so calling a function costs about
+ * the same with the profiler on. The depth is published with a release store, which orders the frames below it without
+ * the fence of a volatile write. A sample may still mix up calls that returned and calls that were made while it was
+ * being copied, which only skews samples of calls shorter than the copy.
+ */
+public final class Profiler {
+    static final Duration INTERVAL = Duration.ofMillis(1);
+    private static final String SCRIPT = "<script>";
+
+    private static final VarHandle DEPTH;
+
+    static {
+        try {
+            DEPTH = MethodHandles.lookup().findVarHandle(Profiler.class, "depth", int.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    // Only written by the thread running the script.
+    private Object[] frames = new Object[64];
+    private int depth = 0;
+
+    // Written by the sampler only, and read once it has stopped.
+    private final Map<List<Object>, Integer> samples = new HashMap<>();
+    private int sampleCount = 0;
+    private Thread sampler;
+    private long started;
+    private long elapsed;
+
+    /**
+     * Starts sampling on a thread of its own.
+     */
+    public void start() {
+        started = System.nanoTime();
+        sampler = Thread.ofPlatform().name("lox-profiler").daemon().start(() -> {
+            try {
+                while (true) {
+                    Thread.sleep(INTERVAL);
+                    sample();
+                }
+            } catch (InterruptedException e) {
+                // Stopped.
+            }
+        });
+    }
+
+    /**
+     * Stops sampling, the samples taken so far can then be written.
+     */
+    public void stop() throws InterruptedException {
+        sampler.interrupt();
+        sampler.join();
+        elapsed = System.nanoTime() - started;
+    }
+
+    void enter(Object frame) {
+        int top = depth;
+        Object[] stack = frames;
+        if (top == stack.length) {
+            stack = Arrays.copyOf(stack, top * 2);
+            frames = stack;
+        }
+        stack[top] = frame;
+        DEPTH.setRelease(this, top + 1);
+    }
+
+    void exit() {
+        DEPTH.setRelease(this, depth - 1);
+    }
+
+    // Frames below the depth were written before it was, and a new array starts as a copy of the old one, so every
+    // frame copied is one that was on the stack.
+    private void sample() {
+        int top = (int) DEPTH.getAcquire(this);
+        Object[] stack = frames;
+        samples.merge(Arrays.asList(Arrays.copyOf(stack, top)), 1, Integer::sum);
+        sampleCount++;
+    }
+
+    /**
+     * Writes the samples as collapsed stacks, the input of flamegraph.pl and most other flame graph tools.
+     */
+    public void writeCollapsed(Writer out) throws IOException {
+        Map<String, Integer> stacks = new HashMap<>();
+        samples.forEach((stack, count) -> stacks.merge(String.join(";", labels(stack)), count, Integer::sum));
+
+        for (Map.Entry<String, Integer> entry : stacks.entrySet()) {
+            out.write(STR."\{entry.getKey()} \{entry.getValue()}\n");
+        }
+        out.flush();
+    }
+
+    /**
+     * Prints how long each function ran, by itself and with everything it called, busiest first.
+     */
+    public void printTable(PrintStream out) {
+        Map<String, Integer> self = new HashMap<>();
+        Map<String, Integer> total = new HashMap<>();
+        samples.forEach((stack, count) -> {
+            List<String> labels = labels(stack);
+            self.merge(labels.getLast(), count, Integer::sum);
+            // A recursive function counts once per sample.
+            for (String label : new LinkedHashSet<>(labels)) {
+                total.merge(label, count, Integer::sum);
+            }
+        });
+
+        List<String> functions = new ArrayList<>(total.keySet());
+        functions.sort(Comparator.comparing((String function) -> self.getOrDefault(function, 0))
+                .thenComparing(total::get)
+                .reversed());
+
+        double millisPerSample = sampleCount == 0 ? 0 : elapsed / 1e6 / sampleCount;
+        out.println(STR."\{sampleCount} samples over \{Math.round(elapsed / 1e6)} ms");
+        out.println(String.format("%10s %7s %10s %7s  %s", "self ms", "self", "total ms", "total", "function"));
+        for (String function : functions) {
+            int selfCount = self.getOrDefault(function, 0);
+            int totalCount = total.get(function);
+            out.println(String.format("%10.1f %6.1f%% %10.1f %6.1f%%  %s",
+                    selfCount * millisPerSample, percent(selfCount), totalCount * millisPerSample, percent(totalCount),
+                    function));
+        }
+    }
+
+    private double percent(int count) {
+        return 100.0 * count / sampleCount;
+    }
+
+    private static List<String> labels(List<Object> stack) {
+        List<String> labels = new ArrayList<>(stack.size() + 1);
+        labels.add(SCRIPT);
+        for (Object frame : stack) {
+            labels.add(label(frame));
+        }
+        return labels;
+    }
+
+    private static String label(Object frame) {
+        return switch (frame) {
+            case Stmt.Function function -> STR."\{function.name.lexeme()}:\{function.name.line}";
+            case LoxClass klass -> STR."\{klass.name}:\{klass.line}";
+            default -> frame.toString();
+        };
+    }
+}
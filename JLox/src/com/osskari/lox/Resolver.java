@@ -1,18 +1,19 @@
 package com.osskari.lox;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
+    private final ErrorReporter reporter;
+    private final Stack<Map<String, Variable>> scopes = new Stack<>();
     private FunctionType currentFunction = FunctionType.NONE;
     private ClassType currentClass = ClassType.NONE;
 
-    Resolver(Interpreter interpreter) {
-        this.interpreter = interpreter;
+    Resolver(ErrorReporter reporter) {
+        this.reporter = reporter;
     }
 
     void resolve(List<Stmt> statements) {
@@ -29,17 +30,41 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         expression.accept(this);
     }
 
+    /**
+     * Resolves the body of a lazy function once it's parsed, as if it was where the function was declared.
+     */
+    static void resolveBody(Stmt.Function function, Declaration declaration, ErrorReporter reporter) {
+        Resolver resolver = new Resolver(reporter);
+        resolver.scopes.addAll(declaration.scopes());
+        resolver.currentClass = declaration.currentClass();
+        resolver.resolveFunction(function, declaration.type());
+    }
+
     private void resolveFunction(Stmt.Function function, FunctionType functionType) {
+        // Only the scopes as they are now are visible to the body, whatever is declared after the function isn't.
+        if (function.lazy != null) {
+            List<Map<String, Variable>> visible = new ArrayList<>(scopes.size());
+            for (Map<String, Variable> scope : scopes) {
+                visible.add(new HashMap<>(scope));
+            }
+            function.lazy.declaration = new Declaration(visible, functionType, currentClass);
+            return;
+        }
+
         FunctionType enclosingFunction = currentFunction;
         currentFunction = functionType;
 
         beginScope();
+        // Methods get "this" in the first slot of their own scope, so calling one doesn't need a bound environment.
+        if (functionType == FunctionType.METHOD || functionType == FunctionType.INITIALIZER) {
+            defineImplicit("this");
+        }
         for (Token param : function.params) {
             declare(param);
             define(param);
         }
         resolve(function.body);
-        endScope();
+        function.scopeSize = endScope();
 
         currentFunction = enclosingFunction;
     }
@@ -48,39 +73,55 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         scopes.push(new HashMap<>());
     }
 
-    private void endScope() {
-        scopes.pop();
+    private int endScope() {
+        return scopes.pop().size();
     }
 
-    private void declare(Token name) {
-        if (scopes.isEmpty()) return;
+    private int declare(Token name) {
+        if (scopes.isEmpty()) return -1;
 
-        Map<String, Boolean> scope = scopes.peek();
-        if (scope.containsKey(name.lexeme)) {
-            Lox.error(name, "A variable of the same name already exists in the same scope.");
+        Map<String, Variable> scope = scopes.peek();
+        if (scope.containsKey(name.lexeme())) {
+            reporter.error(name, "A variable of the same name already exists in the same scope.");
+            return scope.get(name.lexeme()).slot;
         }
-        scope.put(name.lexeme, false);
+
+        Variable variable = new Variable(scope.size());
+        scope.put(name.lexeme(), variable);
+        return variable.slot;
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().put(name.lexeme, true);
+        scopes.peek().get(name.lexeme()).defined = true;
+    }
 
+    private void defineImplicit(String name) {
+        Variable variable = new Variable(scopes.peek().size());
+        variable.defined = true;
+        scopes.peek().put(name, variable);
     }
 
-    private void resolveLocal(Expr expr, Token name) {
+    private int resolveDepth(Token name) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
+            if (scopes.get(i).containsKey(name.lexeme())) {
+                return scopes.size() - 1 - i;
             }
         }
+
+        return -1;
+    }
+
+    private int resolveSlot(Token name, int depth) {
+        if (depth < 0) return -1;
+        return scopes.get(scopes.size() - 1 - depth).get(name.lexeme()).slot;
     }
 
     @Override
     public Void visitAssignExpr(Expr.Assign expr) {
         resolve(expr.value);
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveDepth(expr.name);
+        expr.slot = resolveSlot(expr.name, expr.depth);
         return null;
     }
 
@@ -135,21 +176,23 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitSuperExpr(Expr.Super expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'super' outside of a class.");
+            reporter.error(expr.keyword, "Can't use 'super' outside of a class.");
         } else if (currentClass != ClassType.SUBCLASS) {
-            Lox.error(expr.keyword, "Can't use 'super' in class with no super class.");
+            reporter.error(expr.keyword, "Can't use 'super' in class with no super class.");
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveDepth(expr.keyword);
+        expr.slot = resolveSlot(expr.keyword, expr.depth);
         return null;
     }
 
     @Override
     public Void visitThisExpr(Expr.This expr) {
         if (currentClass == ClassType.NONE) {
-            Lox.error(expr.keyword, "Can't use 'this' outside of a class");
+            reporter.error(expr.keyword, "Can't use 'this' outside of a class");
             return null;
         }
-        resolveLocal(expr, expr.keyword);
+        expr.depth = resolveDepth(expr.keyword);
+        expr.slot = resolveSlot(expr.keyword, expr.depth);
         return null;
     }
 
@@ -161,11 +204,15 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-            Lox.error(expr.name, "Can't read a local variable in it's own initializer.");
+        if (!scopes.isEmpty()) {
+            Variable variable = scopes.peek().get(expr.name.lexeme());
+            if (variable != null && !variable.defined) {
+                reporter.error(expr.name, "Can't read a local variable in it's own initializer.");
+            }
         }
 
-        resolveLocal(expr, expr.name);
+        expr.depth = resolveDepth(expr.name);
+        expr.slot = resolveSlot(expr.name, expr.depth);
         return null;
     }
 
@@ -173,7 +220,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     public Void visitBlockStmt(Stmt.Block stmt) {
         beginScope();
         resolve(stmt.statements);
-        endScope();
+        stmt.scopeSize = endScope();
         return null;
     }
 
@@ -182,11 +229,11 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
-        if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-            Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+        if (stmt.superclass != null && stmt.name.lexeme().equals(stmt.superclass.name.lexeme())) {
+            reporter.error(stmt.superclass.name, "A class can't inherit from itself.");
         }
 
         if (stmt.superclass != null) {
@@ -196,23 +243,18 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
         if (stmt.superclass != null) {
             beginScope();
-            scopes.peek().put("super", true);
+            defineImplicit("super");
         }
 
-        beginScope();
-        scopes.peek().put("this", true);
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
-            if (method.name.lexeme.equals("init")) {
+            if (method.name.lexeme().equals("init")) {
                 declaration = FunctionType.INITIALIZER;
             }
 
             resolveFunction(method, declaration);
         }
 
-        endScope();
-
         if (stmt.superclass != null) {
             endScope();
         }
@@ -229,7 +271,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -253,12 +295,12 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitReturnStmt(Stmt.Return stmt) {
         if (currentFunction == FunctionType.NONE) {
-            Lox.error(stmt.keyword, "Can't return from top-level code.");
+            reporter.error(stmt.keyword, "Can't return from top-level code.");
         }
 
         if (stmt.value != null) {
             if (currentFunction == FunctionType.INITIALIZER) {
-                Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+                reporter.error(stmt.keyword, "Can't return a value from an initializer.");
             }
             resolve(stmt.value);
         }
@@ -267,7 +309,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        stmt.slot = declare(stmt.name);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -281,6 +323,21 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         resolve(stmt.body);
         return null;
     }
+
+    /**
+     * Where a lazy function was declared.
+     */
+    record Declaration(List<Map<String, Variable>> scopes, FunctionType type, ClassType currentClass) {
+    }
+
+    private static class Variable {
+        final int slot;
+        boolean defined = false;
+
+        Variable(int slot) {
+            this.slot = slot;
+        }
+    }
 }
 
 enum FunctionType {
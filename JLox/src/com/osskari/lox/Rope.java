@@ -0,0 +1,67 @@
+package com.osskari.lox;
+
+/**
+ * A Lox string built by concatenation. The characters live in a builder that every rope appended to it shares, and a
+ * rope is the first so many of them: appending to a rope that is the whole builder appends in place and gives a rope
+ * one longer, so a loop of s = s + x copies each piece once instead of the whole string every time. Appending to a
+ * rope that something else was already appended to copies its characters into a builder of its own.
+ * <p>
+ * Ropes are only built once a concatenation reaches {@link #MIN_LENGTH} characters, shorter results stay plain
+ * strings. Both kinds are CharSequences, and a rope is flattened into a string the first time it's printed or
+ * compared. Strings never leave the engine that built them, so a builder is only ever used by one thread at a time.
+ */
+public final class Rope implements CharSequence {
+    static final int MIN_LENGTH = 64;
+
+    private final StringBuilder chars;
+    private final int length;
+    private String flat;
+
+    private Rope(StringBuilder chars, int length) {
+        this.chars = chars;
+        this.length = length;
+    }
+
+    public static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left instanceof Rope rope) return rope.append(right.toString());
+
+        int length = left.length() + right.length();
+        if (length < MIN_LENGTH) return left.toString().concat(right.toString());
+        return new Rope(new StringBuilder(length * 2).append(left).append(right.toString()), length);
+    }
+
+    private Rope append(String text) {
+        if (chars.length() == length) {
+            chars.append(text);
+            return new Rope(chars, length + text.length());
+        }
+
+        StringBuilder copy = new StringBuilder((length + text.length()) * 2).append(toString()).append(text);
+        return new Rope(copy, length + text.length());
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        String text = flat;
+        if (text == null) {
+            text = chars.substring(0, length);
+            flat = text;
+        }
+        return text;
+    }
+}
@@ -1,56 +1,109 @@
 package com.osskari.lox;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
+/**
+ * Scans either a whole source string or a {@link MappedSource}. Tokens scanned from a string point into it instead of
+ * copying their text out of it, see {@link Token}. A mapped source is scanned through a window that slides over the
+ * file, so tokens scanned from it copy their text right away and the window only ever holds the token being scanned
+ * and what follows. Identifiers are interned into the {@link SymbolTable} either way, straight from the characters
+ * scanned.
+ */
 class Scanner {
+    private static final int WINDOW_SIZE = 64 * 1024;
+
     private final String source;
-    private final List<Token> tokens = new ArrayList<>();
-
-    private static final Map<String, TokenType> keywords;
-
-    static {
-        keywords = new HashMap<>();
-        keywords.put("and", TokenType.AND);
-        keywords.put("class", TokenType.CLASS);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("fun", TokenType.FUN);
-        keywords.put("if", TokenType.IF);
-        keywords.put("nil", TokenType.NIL);
-        keywords.put("or", TokenType.OR);
-        keywords.put("print", TokenType.PRINT);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("super", TokenType.SUPER);
-        keywords.put("this", TokenType.THIS);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("var", TokenType.VAR);
-        keywords.put("while", TokenType.WHILE);
-    }
+    private final MappedSource input;
+    private final ErrorReporter reporter;
+    private CharBuffer window;
+    // The source string or the window, positions below are indices into it.
+    private CharSequence text;
+    private Token token;
 
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    Scanner(String source) {
+    Scanner(String source, ErrorReporter reporter) {
+        this(source, 1, reporter);
+    }
+
+    /**
+     * Scans a source that starts on the given line, the text of a lazy function body say.
+     */
+    Scanner(String source, int line, ErrorReporter reporter) {
         this.source = source;
+        this.input = null;
+        this.reporter = reporter;
+        this.text = source;
+        this.line = line;
+    }
+
+    Scanner(MappedSource input, ErrorReporter reporter) {
+        this.source = null;
+        this.input = input;
+        this.reporter = reporter;
+        this.window = CharBuffer.allocate(WINDOW_SIZE).limit(0);
+        this.text = window;
     }
 
     List<Token> scanTokens() {
-        while (!isAtEnd()) {
+        List<Token> tokens = new ArrayList<>();
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.type != TokenType.EOF);
+        return tokens;
+    }
+
+    /**
+     * Scans the next token, which is EOF at the end of the source and from then on.
+     */
+    Token nextToken() {
+        token = null;
+        while (token == null) {
+            if (isAtEnd()) return new Token(TokenType.EOF, "", null, line);
             start = current;
             scanToken();
         }
-
-        tokens.add(new Token(TokenType.EOF, "", null, line));
-        return tokens;
+        return token;
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= text.length() && !refill();
+    }
+
+    /**
+     * Moves the token being scanned to the front of the window and decodes more of the file after it. The window
+     * doubles when a single token leaves less than two chars free, the most a character decodes to. Returns false at
+     * the end of the file, and always for a string.
+     */
+    private boolean refill() {
+        if (input == null) return false;
+
+        int kept = window.limit() - start;
+        if (kept > window.capacity() - 2) {
+            window = CharBuffer.allocate(window.capacity() * 2).put(window.position(start)).flip();
+            text = window;
+        }
+
+        window.position(start).compact();
+        current -= start;
+        start = 0;
+
+        boolean read;
+        try {
+            read = input.read(window);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        window.flip();
+        return read;
     }
 
     private void scanToken() {
@@ -121,14 +174,14 @@ class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
-                    Lox.error(line, "Unexpected character.");
+                    reporter.error(line, "Unexpected character.");
                     break;
                 }
         }
     }
 
     private char advance() {
-        return source.charAt(current++);
+        return text.charAt(current++);
     }
 
     private void addToken(TokenType type) {
@@ -136,13 +189,22 @@ class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        if (source != null) {
+            token = new Token(type, source, start, current - start, literal, line);
+        } else {
+            // The window moves on, only punctuation and keywords can do without their text.
+            boolean hasText = type == TokenType.STRING || type == TokenType.NUMBER;
+            token = new Token(type, hasText ? text(start, current) : null, literal, line);
+        }
+    }
+
+    private String text(int from, int to) {
+        return text.subSequence(from, to).toString();
     }
 
     private boolean match(char expected) {
         if (isAtEnd()) return false;
-        if (source.charAt(current) != expected) return false;
+        if (text.charAt(current) != expected) return false;
 
         current++;
         return true;
@@ -150,12 +212,15 @@ class Scanner {
 
     private char peek() {
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return text.charAt(current);
     }
 
     private char peekNext() {
-        if (current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if (current + 1 >= text.length()) {
+            refill();
+            if (current + 1 >= text.length()) return '\0';
+        }
+        return text.charAt(current + 1);
     }
 
     private boolean isDigit(char c) {
@@ -177,7 +242,7 @@ class Scanner {
         }
 
         if (isAtEnd()) {
-            Lox.error(line, "Unterminated string.");
+            reporter.error(line, "Unterminated string.");
             return;
         }
 
@@ -185,7 +250,7 @@ class Scanner {
         advance();
 
         // off by one on the ends to trim the " from the actual value
-        String value = source.substring(start + 1, current - 1);
+        String value = text(start + 1, current - 1);
         addToken(TokenType.STRING, value);
     }
 
@@ -198,15 +263,113 @@ class Scanner {
             while (isDigit(peek())) advance();
         }
 
-        addToken(TokenType.NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(TokenType.NUMBER, numberValue());
+    }
+
+    // Exact powers of ten, the largest a double holds exactly is 10^22.
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    /**
+     * Most number literals have few digits. Their digits fit in a double exactly, and so does the power of ten to
+     * divide by, which makes the one division correctly rounded: the same result as Double.parseDouble without
+     * copying the text out of the source. Longer literals still go through parseDouble.
+     */
+    private double numberValue() {
+        long digits = 0;
+        int count = 0;
+        int decimals = 0;
+        boolean fraction = false;
+        for (int i = start; i < current; i++) {
+            char c = text.charAt(i);
+            if (c == '.') {
+                fraction = true;
+                continue;
+            }
+
+            digits = digits * 10 + (c - '0');
+            count++;
+            if (fraction) decimals++;
+            if (count > 15) return Double.parseDouble(text(start, current));
+        }
+
+        return decimals == 0 ? (double) digits : digits / POWERS_OF_TEN[decimals];
     }
 
     private void identifier() {
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
-        if (type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+        TokenType type = identifierType();
+        if (type == TokenType.IDENTIFIER) {
+            token = new Token(SymbolTable.intern(text, start, current), line);
+        } else {
+            addToken(type);
+        }
+    }
+
+    /**
+     * Matches keywords with a trie unrolled into switches on the first characters, like clox does, so telling a
+     * keyword from an identifier never builds a string.
+     */
+    private TokenType identifierType() {
+        switch (text.charAt(start)) {
+            case 'a':
+                return checkKeyword(1, "nd", TokenType.AND);
+            case 'c':
+                return checkKeyword(1, "lass", TokenType.CLASS);
+            case 'e':
+                return checkKeyword(1, "lse", TokenType.ELSE);
+            case 'f':
+                if (current - start > 1) {
+                    switch (text.charAt(start + 1)) {
+                        case 'a':
+                            return checkKeyword(2, "lse", TokenType.FALSE);
+                        case 'o':
+                            return checkKeyword(2, "r", TokenType.FOR);
+                        case 'u':
+                            return checkKeyword(2, "n", TokenType.FUN);
+                    }
+                }
+                break;
+            case 'i':
+                return checkKeyword(1, "f", TokenType.IF);
+            case 'n':
+                return checkKeyword(1, "il", TokenType.NIL);
+            case 'o':
+                return checkKeyword(1, "r", TokenType.OR);
+            case 'p':
+                return checkKeyword(1, "rint", TokenType.PRINT);
+            case 'r':
+                return checkKeyword(1, "eturn", TokenType.RETURN);
+            case 's':
+                return checkKeyword(1, "uper", TokenType.SUPER);
+            case 't':
+                if (current - start > 1) {
+                    switch (text.charAt(start + 1)) {
+                        case 'h':
+                            return checkKeyword(2, "is", TokenType.THIS);
+                        case 'r':
+                            return checkKeyword(2, "ue", TokenType.TRUE);
+                    }
+                }
+                break;
+            case 'v':
+                return checkKeyword(1, "ar", TokenType.VAR);
+            case 'w':
+                return checkKeyword(1, "hile", TokenType.WHILE);
+        }
+
+        return TokenType.IDENTIFIER;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type) {
+        if (current - start != offset + rest.length()) return TokenType.IDENTIFIER;
+
+        for (int i = 0; i < rest.length(); i++) {
+            if (text.charAt(start + offset + i) != rest.charAt(i)) return TokenType.IDENTIFIER;
+        }
+        return type;
     }
 }
@@ -0,0 +1,146 @@
+package com.osskari.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Keeps the resolved and optimized statements of scripts in a directory, so running a script again skips scanning,
+ * parsing, resolving and optimizing it. A script's file is named after a hash of its source and of the interpreter's
+ * version, which changes whenever anything that decides what the statements look like changes: a different source or
+ * a different interpreter simply looks for another file.
+ * <p>
+ * Files are written to a temporary file first and moved into place, so concurrent runs never read half a file. A file
+ * that can't be read for any reason, or whose checksum doesn't match, is a miss.
+ */
+public final class ScriptCache {
+    // Bump when the format written by AstWriter changes in a way the class files below don't show.
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAGIC = 0x4c4f5843;
+
+    // The classes whose code decides what the cached statements look like, nested ones included. The optimizer folds
+    // constants with the Interpreter's semantics.
+    private static final Class<?>[] FRONT_END = {
+            Scanner.class, Parser.class, Resolver.class, Optimizer.class, Interpreter.class, Token.class,
+            TokenType.class, Expr.class, Stmt.class, AstWriter.class, AstReader.class, ScriptCache.class
+    };
+
+    private static volatile byte[] version;
+
+    private final Path directory;
+
+    public ScriptCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * The cached statements for the source, or null when there are none.
+     */
+    List<Stmt> load(String source) {
+        Path file = file(source);
+        try {
+            ByteBuffer input = ByteBuffer.wrap(Files.readAllBytes(file));
+            if (input.getInt() != MAGIC || input.getInt() != FORMAT_VERSION) return null;
+
+            byte[] stored = new byte[version().length];
+            input.get(stored);
+            if (!MessageDigest.isEqual(stored, version())) return null;
+
+            // A damaged file could still read as a program, just not this one.
+            int checksum = input.getInt();
+            CRC32C crc = new CRC32C();
+            crc.update(input.duplicate());
+            if ((int) crc.getValue() != checksum) return null;
+
+            return new AstReader(input).read();
+        } catch (IOException | BufferUnderflowException | IllegalStateException | ClassCastException
+                 | IndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Caches the statements of the source. Failing to write the file only means the next run won't find it.
+     */
+    void store(String source, List<Stmt> statements) {
+        Path file = file(source);
+        Path temporary = null;
+        try {
+            Files.createDirectories(directory);
+            temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            new AstWriter().write(statements, body);
+            CRC32C crc = new CRC32C();
+            crc.update(body.toByteArray());
+
+            try (OutputStream output = Files.newOutputStream(temporary)) {
+                output.write(ByteBuffer.allocate(8).putInt(MAGIC).putInt(FORMAT_VERSION).array());
+                output.write(version());
+                output.write(ByteBuffer.allocate(4).putInt((int) crc.getValue()).array());
+                body.writeTo(output);
+            }
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            try {
+                if (temporary != null) Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // Left for whoever cleans the directory.
+            }
+        }
+    }
+
+    private Path file(String source) {
+        MessageDigest digest = sha256();
+        digest.update(version());
+        digest.update(source.getBytes(StandardCharsets.UTF_8));
+        return directory.resolve(STR."\{HexFormat.of().formatHex(digest.digest())}.loxc");
+    }
+
+    /**
+     * A hash of the class files of the front end and the AST, computed once.
+     */
+    private static byte[] version() {
+        byte[] hash = version;
+        if (hash == null) {
+            MessageDigest digest = sha256();
+            for (Class<?> type : FRONT_END) {
+                digest.update(classFile(type));
+                for (Class<?> nested : type.getDeclaredClasses()) {
+                    digest.update(classFile(nested));
+                }
+            }
+            hash = version = digest.digest();
+        }
+        return hash;
+    }
+
+    private static byte[] classFile(Class<?> type) {
+        String name = STR."\{type.getName().substring(type.getPackageName().length() + 1)}.class";
+        try (InputStream input = type.getResourceAsStream(name)) {
+            if (input == null) throw new IllegalStateException(STR."Can't find the class file of \{type.getName()}.");
+            return input.readAllBytes();
+        } catch (IOException e) {
+            throw new IllegalStateException(STR."Can't read the class file of \{type.getName()}.", e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("Every JVM has SHA-256.", e);
+        }
+    }
+}
@@ -2,8 +2,11 @@ package com.osskari.lox;
 
 import java.util.List;
 
-abstract class Stmt {
-    interface Visitor<R> {
+public abstract class Stmt {
+    // How many times the node ran, only counted while the interpreter counts executions.
+    public long executions;
+
+    public interface Visitor<R> {
         R visitBlockStmt(Block stmt);
 
         R visitClassStmt(Class stmt);
@@ -23,23 +26,25 @@ abstract class Stmt {
         R visitWhileStmt(While stmt);
 
     }
-    static class Block extends Stmt {
-        final List<Stmt> statements;
+    public static class Block extends Stmt {
+        public final List<Stmt> statements;
+        public int scopeSize;
 
         Block(List<Stmt> statements) {
             this.statements = statements;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitBlockStmt(this);
         }
     }
 
-    static class Class extends Stmt {
-        final Token name;
-        final Expr.Variable superclass;
-        final List<Stmt.Function> methods;
+    public static class Class extends Stmt {
+        public final Token name;
+        public final Expr.Variable superclass;
+        public final List<Stmt.Function> methods;
+        public int slot = -1;
 
         Class(Token name, Expr.Variable superclass, List<Stmt.Function> methods) {
             this.name = name;
@@ -48,28 +53,33 @@ abstract class Stmt {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitClassStmt(this);
         }
     }
 
-    static class Expression extends Stmt {
-        final Expr expression;
+    public static class Expression extends Stmt {
+        public final Expr expression;
 
         Expression(Expr expression) {
             this.expression = expression;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitExpressionStmt(this);
         }
     }
 
-    static class Function extends Stmt {
-        final Token name;
-        final List<Token> params;
-        final List<Stmt> body;
+    public static class Function extends Stmt {
+        public final Token name;
+        public final List<Token> params;
+        public final List<Stmt> body;
+        public int slot = -1;
+        public int scopeSize;
+        public int calls;
+        public com.osskari.lox.jit.CompiledFunction compiled;
+        public LazyBody lazy;
 
         Function(Token name, List<Token> params, List<Stmt> body) {
             this.name = name;
@@ -78,15 +88,15 @@ abstract class Stmt {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitFunctionStmt(this);
         }
     }
 
-    static class If extends Stmt {
-        final Expr condition;
-        final Stmt thenBranch;
-        final Stmt elseBranch;
+    public static class If extends Stmt {
+        public final Expr condition;
+        public final Stmt thenBranch;
+        public final Stmt elseBranch;
 
         If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
             this.condition = condition;
@@ -95,27 +105,27 @@ abstract class Stmt {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitIfStmt(this);
         }
     }
 
-    static class Print extends Stmt {
-        final Expr expression;
+    public static class Print extends Stmt {
+        public final Expr expression;
 
         Print(Expr expression) {
             this.expression = expression;
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitPrintStmt(this);
         }
     }
 
-    static class Return extends Stmt {
-        final Token keyword;
-        final Expr value;
+    public static class Return extends Stmt {
+        public final Token keyword;
+        public final Expr value;
 
         Return(Token keyword, Expr value) {
             this.keyword = keyword;
@@ -123,14 +133,15 @@ abstract class Stmt {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitReturnStmt(this);
         }
     }
 
-    static class Var extends Stmt {
-        final Token name;
-        final Expr initializer;
+    public static class Var extends Stmt {
+        public final Token name;
+        public final Expr initializer;
+        public int slot = -1;
 
         Var(Token name, Expr initializer) {
             this.name = name;
@@ -138,14 +149,14 @@ abstract class Stmt {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitVarStmt(this);
         }
     }
 
-    static class While extends Stmt {
-        final Expr condition;
-        final Stmt body;
+    public static class While extends Stmt {
+        public final Expr condition;
+        public final Stmt body;
 
         While(Expr condition, Stmt body) {
             this.condition = condition;
@@ -153,10 +164,10 @@ abstract class Stmt {
         }
 
         @Override
-        <R> R accept(Visitor<R> visitor) {
+        public <R> R accept(Visitor<R> visitor) {
             return visitor.visitWhileStmt(this);
         }
     }
 
-    abstract <R> R accept(Visitor<R> visitor);
+    public abstract <R> R accept(Visitor<R> visitor);
 }
@@ -0,0 +1,25 @@
+package com.osskari.lox;
+
+/**
+ * An interned identifier. There is only ever one symbol for the same name while anything uses it, see
+ * {@link SymbolTable}, so symbols are compared by identity and hash by their id, handed out in order from 0.
+ */
+public final class Symbol {
+    public final String name;
+    public final int id;
+
+    Symbol(String name, int id) {
+        this.name = name;
+        this.id = id;
+    }
+
+    @Override
+    public int hashCode() {
+        return id;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
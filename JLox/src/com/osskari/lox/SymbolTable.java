@@ -0,0 +1,125 @@
+package com.osskari.lox;
+
+import java.lang.ref.WeakReference;
+
+/**
+ * The table of every identifier in use. The scanner interns identifiers straight out of the source text, like clox's
+ * string table, so an identifier seen before is found without building a string for it.
+ * <p>
+ * The table is shared by every engine in the process but only holds its symbols weakly, the tokens, environments and
+ * classes using a symbol keep it alive. Once no engine uses a name anymore its symbol is collected, and the name gets a
+ * new one the next time it's interned, which nothing can tell from the old one. A long-lived process running unrelated
+ * scripts only keeps the symbols of the scripts whose engines are still around. Collected entries keep their place
+ * until the table next grows, which only copies the live ones.
+ * <p>
+ * Lookups don't lock: entries never change once added and a table is only ever written to by adding entries under the
+ * lock, so a lookup sees either a finished entry or an empty one, and an empty entry is checked again under the lock
+ * before adding anything.
+ */
+final class SymbolTable {
+    private static final float MAX_LOAD = 0.75f;
+
+    private static final class Entry extends WeakReference<Symbol> {
+        final int hash;
+
+        Entry(Symbol symbol, int hash) {
+            super(symbol);
+            this.hash = hash;
+        }
+    }
+
+    private static volatile Entry[] entries = new Entry[1024];
+    // Entries taken, collected ones included.
+    private static int count = 0;
+    private static int nextId = 0;
+
+    private SymbolTable() {
+    }
+
+    static Symbol intern(String name) {
+        return intern(name, 0, name.length());
+    }
+
+    /**
+     * The symbol for the characters between start and end of the text.
+     */
+    static Symbol intern(CharSequence text, int start, int end) {
+        int hash = hash(text, start, end);
+        Symbol symbol = find(entries, text, start, end, hash);
+        if (symbol != null) return symbol;
+
+        return add(text, start, end, hash);
+    }
+
+    private static synchronized Symbol add(CharSequence text, int start, int end, int hash) {
+        Symbol symbol = find(entries, text, start, end, hash);
+        if (symbol != null) return symbol;
+
+        Entry[] table = entries;
+        if (count + 1 > table.length * MAX_LOAD) {
+            table = rebuild(table);
+        }
+
+        symbol = new Symbol(text.subSequence(start, end).toString(), nextId++);
+        table[indexFor(table, hash)] = new Entry(symbol, hash);
+        count++;
+        entries = table;
+        return symbol;
+    }
+
+    // Probes linearly from the hash, the first empty entry ends the search. Collected entries are skipped over.
+    private static Symbol find(Entry[] table, CharSequence text, int start, int end, int hash) {
+        for (int index = hash & (table.length - 1); ; index = (index + 1) & (table.length - 1)) {
+            Entry entry = table[index];
+            if (entry == null) return null;
+            if (entry.hash != hash) continue;
+
+            Symbol symbol = entry.get();
+            if (symbol != null && matches(symbol.name, text, start, end)) return symbol;
+        }
+    }
+
+    private static int indexFor(Entry[] table, int hash) {
+        int index = hash & (table.length - 1);
+        while (table[index] != null) {
+            index = (index + 1) & (table.length - 1);
+        }
+        return index;
+    }
+
+    // A table with only the entries whose symbols are still alive, twice as large when they'd fill half of this one.
+    private static Entry[] rebuild(Entry[] table) {
+        int live = 0;
+        for (Entry entry : table) {
+            if (entry != null && !entry.refersTo(null)) live++;
+        }
+
+        Entry[] rebuilt = new Entry[live * 2 > table.length * MAX_LOAD ? table.length * 2 : table.length];
+        count = 0;
+        for (Entry entry : table) {
+            if (entry != null && !entry.refersTo(null)) {
+                rebuilt[indexFor(rebuilt, entry.hash)] = entry;
+                count++;
+            }
+        }
+        return rebuilt;
+    }
+
+    private static boolean matches(String name, CharSequence text, int start, int end) {
+        if (name.length() != end - start) return false;
+
+        for (int i = 0; i < name.length(); i++) {
+            if (name.charAt(i) != text.charAt(start + i)) return false;
+        }
+        return true;
+    }
+
+    // The same hash as String.hashCode, so a symbol's name hashes to the entry it was found at.
+    private static int hash(CharSequence text, int start, int end) {
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            hash = 31 * hash + text.charAt(i);
+        }
+        return hash;
+    }
+}
@@ -1,19 +1,113 @@
 package com.osskari.lox;
 
+/**
+ * A token usually only remembers where it is in the source. Its lexeme is built the first time it's asked for, and
+ * tokens whose text is always the same, punctuation and keywords, never copy anything out of the source. Identifiers
+ * are interned by the scanner and carry their {@link Symbol}, their lexeme is the symbol's name.
+ */
 public class Token {
-    final TokenType type;
-    final String lexeme;
-    final Object literal;
-    final int line;
+    public final TokenType type;
+    public final Object literal;
+    public final int line;
+    private final String source;
+    private final int offset;
+    private final int length;
+    private String lexeme;
+    private Symbol symbol;
+    // Where the global this token names was last found.
+    Environment.Global global;
 
-    Token(TokenType type, String lexeme, Object literal, int line) {
+    Token(TokenType type, String source, int offset, int length, Object literal, int line) {
         this.type = type;
-        this.lexeme = lexeme;
+        this.source = source;
+        this.offset = offset;
+        this.length = length;
         this.literal = literal;
         this.line = line;
     }
 
+    /**
+     * A token that already has its text, or null for punctuation and keywords.
+     */
+    Token(TokenType type, String lexeme, Object literal, int line) {
+        this(type, null, 0, 0, literal, line);
+        this.lexeme = lexeme;
+    }
+
+    Token(Symbol symbol, int line) {
+        this(TokenType.IDENTIFIER, symbol.name, null, line);
+        this.symbol = symbol;
+    }
+
+    public String lexeme() {
+        if (lexeme == null) {
+            String text = fixedText(type);
+            lexeme = text != null ? text : source.substring(offset, offset + length);
+        }
+        return lexeme;
+    }
+
+    /**
+     * The source the token was scanned from, or null when its text was copied out of it.
+     */
+    String source() {
+        return source;
+    }
+
+    int offset() {
+        return offset;
+    }
+
+    public Symbol symbol() {
+        if (symbol == null) {
+            symbol = SymbolTable.intern(lexeme());
+        }
+        return symbol;
+    }
+
+    private static String fixedText(TokenType type) {
+        return switch (type) {
+            case LEFT_PAREN -> "(";
+            case RIGHT_PAREN -> ")";
+            case LEFT_BRACE -> "{";
+            case RIGHT_BRACE -> "}";
+            case COMMA -> ",";
+            case DOT -> ".";
+            case MINUS -> "-";
+            case PLUS -> "+";
+            case SEMICOLON -> ";";
+            case SLASH -> "/";
+            case STAR -> "*";
+            case BANG -> "!";
+            case BANG_EQUAL -> "!=";
+            case EQUAL -> "=";
+            case EQUAL_EQUAL -> "==";
+            case GREATER -> ">";
+            case GREATER_EQUAL -> ">=";
+            case LESS -> "<";
+            case LESS_EQUAL -> "<=";
+            case AND -> "and";
+            case CLASS -> "class";
+            case ELSE -> "else";
+            case FALSE -> "false";
+            case FUN -> "fun";
+            case FOR -> "for";
+            case IF -> "if";
+            case NIL -> "nil";
+            case OR -> "or";
+            case PRINT -> "print";
+            case RETURN -> "return";
+            case SUPER -> "super";
+            case THIS -> "this";
+            case TRUE -> "true";
+            case VAR -> "var";
+            case WHILE -> "while";
+            case EOF -> "";
+            case IDENTIFIER, STRING, NUMBER -> null;
+        };
+    }
+
     public String toString() {
-        return STR."\{type} \{lexeme} \{literal}";
+        return STR."\{type} \{lexeme()} \{literal}";
     }
 }
@@ -1,6 +1,6 @@
 package com.osskari.lox;
 
-enum TokenType {
+public enum TokenType {
     // Single character tokens
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACE, RIGHT_BRACE,
     COMMA, DOT, MINUS, PLUS, SEMICOLON, SLASH, STAR,
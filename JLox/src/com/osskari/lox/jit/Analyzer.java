@@ -0,0 +1,233 @@
+package com.osskari.lox.jit;
+
+import com.osskari.lox.Expr;
+import com.osskari.lox.Stmt;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * First pass over a function body. It maps every variable reference to the local it reads or writes, rejects what the
+ * compiler can't handle, and infers which locals only ever hold numbers so those can live in double locals.
+ */
+final class Analyzer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    static final class Local {
+        final List<Expr> assignments = new ArrayList<>();
+        ValueType type;
+        int index = -1;
+
+        Local(ValueType type) {
+            this.type = type;
+        }
+    }
+
+    final Local[] parameters;
+    final List<Local> locals = new ArrayList<>();
+    // Variable and Assign expressions that refer to a local, globals are left out.
+    final Map<Expr, Local> references = new IdentityHashMap<>();
+    final Map<Stmt.Var, Local> declarations = new IdentityHashMap<>();
+    private final List<Local[]> scopes = new ArrayList<>();
+
+    Analyzer(Stmt.Function function) {
+        Local[] scope = new Local[function.scopeSize];
+        parameters = new Local[function.params.size()];
+        for (int i = 0; i < parameters.length; i++) {
+            parameters[i] = scope[i] = newLocal(ValueType.OBJECT);
+        }
+
+        scopes.add(scope);
+        for (Stmt statement : function.body) {
+            statement.accept(this);
+        }
+
+        inferTypes();
+    }
+
+    private Local newLocal(ValueType type) {
+        Local local = new Local(type);
+        locals.add(local);
+        return local;
+    }
+
+    /**
+     * Every local starts out as a number if it's initialized, and becomes an object once anything assigned to it
+     * might not be a number. Locals only ever go from number to object, so this ends.
+     */
+    private void inferTypes() {
+        Types types = new Types(references);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (Local local : locals) {
+                if (local.type != ValueType.DOUBLE) continue;
+
+                for (Expr assignment : local.assignments) {
+                    if (types.of(assignment) != ValueType.DOUBLE) {
+                        local.type = ValueType.OBJECT;
+                        changed = true;
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    private void resolve(Expr expr, int depth, int slot) {
+        if (depth < 0) return;
+
+        int scope = scopes.size() - 1 - depth;
+        if (scope < 0) throw new Unsupported("variable captured from an enclosing function");
+
+        Local local = scopes.get(scope)[slot];
+        if (local == null) throw new Unsupported("variable used before its declaration");
+        references.put(expr, local);
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        expr.value.accept(this);
+        resolve(expr, expr.depth, expr.slot);
+
+        Local local = references.get(expr);
+        if (local != null) local.assignments.add(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        expr.callee.accept(this);
+        for (Expr argument : expr.arguments) {
+            argument.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        expr.object.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        expr.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        expr.left.accept(this);
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        expr.object.accept(this);
+        expr.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported("super");
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        throw new Unsupported("this");
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        expr.right.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        resolve(expr, expr.depth, expr.slot);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scopes.add(new Local[stmt.scopeSize]);
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        scopes.removeLast();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported("class declaration");
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("nested function");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        stmt.condition.accept(this);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        stmt.expression.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) stmt.value.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot < 0) throw new Unsupported("global declaration");
+
+        if (stmt.initializer != null) stmt.initializer.accept(this);
+
+        // Without an initializer the variable starts out nil.
+        Local local = newLocal(stmt.initializer == null ? ValueType.OBJECT : ValueType.DOUBLE);
+        if (stmt.initializer != null) local.assignments.add(stmt.initializer);
+        scopes.getLast()[stmt.slot] = local;
+        declarations.put(stmt, local);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        stmt.condition.accept(this);
+        stmt.body.accept(this);
+        return null;
+    }
+}
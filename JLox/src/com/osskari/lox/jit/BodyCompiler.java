@@ -0,0 +1,589 @@
+package com.osskari.lox.jit;
+
+import com.osskari.lox.Dispatch;
+import com.osskari.lox.Expr;
+import com.osskari.lox.Stmt;
+import com.osskari.lox.Token;
+import com.osskari.lox.TokenType;
+
+import java.lang.invoke.MethodHandle;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Generates the class for one function: a CompiledFunction whose call method runs the body. Numbers stay unboxed as
+ * long as their static type is known, everything else goes through JitRuntime. Calls and property accesses go through
+ * call sites from {@link Dispatch}.
+ * <p>
+ * The class gets its constants as class data, which its static initializer copies into static final fields: an array
+ * of the tokens needed for error messages, and one method handle per call site so the JVM treats sites as constants.
+ */
+final class BodyCompiler implements Expr.Visitor<ValueType>, Stmt.Visitor<Void> {
+    private static final String OBJECT = "java/lang/Object";
+    private static final String OBJECT_TYPE = "Ljava/lang/Object;";
+    private static final String TOKEN = "com/osskari/lox/Token";
+    private static final String TOKEN_TYPE = "Lcom/osskari/lox/Token;";
+    private static final String INTERPRETER_TYPE = "Lcom/osskari/lox/Interpreter;";
+    private static final String RUNTIME = "com/osskari/lox/jit/JitRuntime";
+    private static final String CALL_DESCRIPTOR = STR."(\{INTERPRETER_TYPE}Ljava/util/List;)\{OBJECT_TYPE}";
+    private static final String METHOD_HANDLE = "java/lang/invoke/MethodHandle";
+    private static final String METHOD_HANDLE_TYPE = "Ljava/lang/invoke/MethodHandle;";
+    private static final String CONSTANTS = "constants";
+    private static final String CONSTANTS_TYPE = "[Ljava/lang/Object;";
+    private static final String SITE_CALL_DESCRIPTOR =
+            STR."(\{OBJECT_TYPE}[\{OBJECT_TYPE}\{INTERPRETER_TYPE})\{OBJECT_TYPE}";
+
+    // Locals of the call method, before the ones holding Lox variables.
+    private static final int INTERPRETER = 1;
+    private static final int ARGUMENTS = 2;
+
+    private final Stmt.Function function;
+    private final String className;
+    private final Analyzer analyzer;
+    private final Types types;
+    private final ClassBuilder builder;
+    private final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndexes = new IdentityHashMap<>();
+    private final List<MethodHandle> sites = new ArrayList<>();
+    private CodeBuilder code;
+
+    BodyCompiler(Stmt.Function function, String className) {
+        this.function = function;
+        this.className = className;
+        this.analyzer = new Analyzer(function);
+        this.types = new Types(analyzer.references);
+        this.builder = new ClassBuilder(className, OBJECT, "com/osskari/lox/jit/CompiledFunction");
+    }
+
+    byte[] compile() {
+        CodeBuilder constructor = builder.method(ClassBuilder.ACC_PUBLIC, "<init>", "()V", 1);
+        constructor.aload(0);
+        constructor.invokespecial(OBJECT, "<init>", "()V");
+        constructor.vreturn();
+        constructor.finish();
+
+        code = builder.method(ClassBuilder.ACC_PUBLIC, "call", CALL_DESCRIPTOR, 3);
+        for (int i = 0; i < analyzer.parameters.length; i++) {
+            Analyzer.Local parameter = analyzer.parameters[i];
+            parameter.index = code.newLocal(1);
+            code.aload(ARGUMENTS);
+            code.iconst(i);
+            code.invokeinterface("java/util/List", "get", STR."(I)\{OBJECT_TYPE}");
+            code.astore(parameter.index);
+        }
+
+        for (Stmt statement : function.body) {
+            statement.accept(this);
+        }
+
+        code.aconstNull();
+        code.areturn();
+        code.finish();
+
+        initializer();
+        return builder.toByteArray();
+    }
+
+    /**
+     * What the class expects as class data: the constants array followed by the call sites.
+     */
+    Object[] classData() {
+        Object[] data = new Object[1 + sites.size()];
+        data[0] = constants.toArray();
+        for (int i = 0; i < sites.size(); i++) {
+            data[1 + i] = sites.get(i);
+        }
+        return data;
+    }
+
+    private void initializer() {
+        int constant = ClassBuilder.ACC_PRIVATE | ClassBuilder.ACC_STATIC | ClassBuilder.ACC_FINAL;
+        builder.field(constant, CONSTANTS, CONSTANTS_TYPE);
+        for (int i = 0; i < sites.size(); i++) {
+            builder.field(constant, site(i), METHOD_HANDLE_TYPE);
+        }
+
+        code = builder.method(ClassBuilder.ACC_STATIC, "<clinit>", "()V", 0);
+        int data = code.newLocal(1);
+        code.invokestatic("java/lang/invoke/MethodHandles", "lookup", "()Ljava/lang/invoke/MethodHandles$Lookup;");
+        code.ldcString("_");
+        code.ldcClass(CONSTANTS_TYPE);
+        code.invokestatic("java/lang/invoke/MethodHandles", "classData",
+                STR."(Ljava/lang/invoke/MethodHandles$Lookup;Ljava/lang/String;Ljava/lang/Class;)\{OBJECT_TYPE}");
+        code.checkcast(CONSTANTS_TYPE);
+        code.astore(data);
+
+        code.aload(data);
+        code.iconst(0);
+        code.aaload();
+        code.checkcast(CONSTANTS_TYPE);
+        code.putstatic(className, CONSTANTS, CONSTANTS_TYPE);
+        for (int i = 0; i < sites.size(); i++) {
+            code.aload(data);
+            code.iconst(1 + i);
+            code.aaload();
+            code.checkcast(METHOD_HANDLE);
+            code.putstatic(className, site(i), METHOD_HANDLE_TYPE);
+        }
+
+        code.vreturn();
+        code.finish();
+    }
+
+    private static String site(int index) {
+        return STR."site\{index}";
+    }
+
+    /**
+     * Adds a call site and loads its method handle, the operands and invokeExact come after.
+     */
+    private void loadSite(MethodHandle site) {
+        code.getstatic(className, site(sites.size()), METHOD_HANDLE_TYPE);
+        sites.add(site);
+    }
+
+    private void loadToken(Token token) {
+        Integer index = constantIndexes.get(token);
+        if (index == null) {
+            index = constants.size();
+            constants.add(token);
+            constantIndexes.put(token, index);
+        }
+
+        code.getstatic(className, CONSTANTS, CONSTANTS_TYPE);
+        code.iconst(index);
+        code.aaload();
+        code.checkcast(TOKEN);
+    }
+
+    private void emit(Expr expr, ValueType type) {
+        ValueType actual = expr.accept(this);
+        if (actual != types.of(expr)) {
+            throw new IllegalStateException(STR."Compiled \{actual} where \{types.of(expr)} was inferred.");
+        }
+        convert(actual, type);
+    }
+
+    private void convert(ValueType from, ValueType to) {
+        if (from == to) return;
+        if (to != ValueType.OBJECT) throw new IllegalStateException(STR."Can't convert \{from} to \{to}.");
+
+        if (from == ValueType.DOUBLE) {
+            code.invokestatic("java/lang/Double", "valueOf", "(D)Ljava/lang/Double;");
+        } else {
+            code.invokestatic("java/lang/Boolean", "valueOf", "(Z)Ljava/lang/Boolean;");
+        }
+    }
+
+    /**
+     * Leaves the truthiness of the expression on the stack as an int.
+     */
+    private void condition(Expr expr) {
+        ValueType type = types.of(expr);
+        emit(expr, type);
+        switch (type) {
+            case DOUBLE -> {
+                code.pop2();
+                code.iconst(1);
+            }
+            case OBJECT -> code.invokestatic(RUNTIME, "isTruthy", STR."(\{OBJECT_TYPE})Z");
+            case BOOLEAN -> {
+            }
+        }
+    }
+
+    private void discard(ValueType type) {
+        if (type == ValueType.DOUBLE) {
+            code.pop2();
+        } else {
+            code.pop();
+        }
+    }
+
+    private void load(Analyzer.Local local) {
+        if (local.type == ValueType.DOUBLE) {
+            code.dload(local.index);
+        } else {
+            code.aload(local.index);
+        }
+    }
+
+    private void store(Analyzer.Local local) {
+        if (local.type == ValueType.DOUBLE) {
+            code.dstore(local.index);
+        } else {
+            code.astore(local.index);
+        }
+    }
+
+    @Override
+    public ValueType visitAssignExpr(Expr.Assign expr) {
+        Analyzer.Local local = analyzer.references.get(expr);
+        if (local == null) {
+            emit(expr.value, ValueType.OBJECT);
+            code.aload(INTERPRETER);
+            loadToken(expr.name);
+            code.invokestatic(RUNTIME, "assignGlobal",
+                    STR."(\{OBJECT_TYPE}\{INTERPRETER_TYPE}\{TOKEN_TYPE})\{OBJECT_TYPE}");
+            return ValueType.OBJECT;
+        }
+
+        emit(expr.value, local.type);
+        if (local.type == ValueType.DOUBLE) {
+            code.dup2();
+        } else {
+            code.dup();
+        }
+        store(local);
+        return local.type;
+    }
+
+    @Override
+    public ValueType visitBinaryExpr(Expr.Binary expr) {
+        boolean numbers = types.of(expr.left) == ValueType.DOUBLE && types.of(expr.right) == ValueType.DOUBLE;
+        String objects = STR."(\{OBJECT_TYPE}\{OBJECT_TYPE}\{TOKEN_TYPE})";
+
+        switch (expr.operator.type) {
+            case PLUS -> {
+                if (numbers) {
+                    emit(expr.left, ValueType.DOUBLE);
+                    emit(expr.right, ValueType.DOUBLE);
+                    code.dadd();
+                    return ValueType.DOUBLE;
+                }
+
+                emit(expr.left, ValueType.OBJECT);
+                emit(expr.right, ValueType.OBJECT);
+                code.invokestatic(RUNTIME, "add", STR."(\{OBJECT_TYPE}\{OBJECT_TYPE})\{OBJECT_TYPE}");
+                return ValueType.OBJECT;
+            }
+            case MINUS, STAR, SLASH -> {
+                if (numbers) {
+                    emit(expr.left, ValueType.DOUBLE);
+                    emit(expr.right, ValueType.DOUBLE);
+                    switch (expr.operator.type) {
+                        case MINUS -> code.dsub();
+                        case STAR -> code.dmul();
+                        default -> {
+                            loadToken(expr.operator);
+                            code.invokestatic(RUNTIME, "divide", STR."(DD\{TOKEN_TYPE})D");
+                        }
+                    }
+                    return ValueType.DOUBLE;
+                }
+
+                emit(expr.left, ValueType.OBJECT);
+                emit(expr.right, ValueType.OBJECT);
+                loadToken(expr.operator);
+                String name = switch (expr.operator.type) {
+                    case MINUS -> "subtract";
+                    case STAR -> "multiply";
+                    default -> "divide";
+                };
+                code.invokestatic(RUNTIME, name, STR."\{objects}D");
+                return ValueType.DOUBLE;
+            }
+            case EQUAL_EQUAL, BANG_EQUAL -> {
+                if (numbers) {
+                    emit(expr.left, ValueType.DOUBLE);
+                    emit(expr.right, ValueType.DOUBLE);
+                    code.invokestatic(RUNTIME, "isEqual", "(DD)Z");
+                } else {
+                    emit(expr.left, ValueType.OBJECT);
+                    emit(expr.right, ValueType.OBJECT);
+                    code.invokestatic(RUNTIME, "isEqual", STR."(\{OBJECT_TYPE}\{OBJECT_TYPE})Z");
+                }
+
+                if (expr.operator.type == TokenType.BANG_EQUAL) {
+                    code.iconst(1);
+                    code.ixor();
+                }
+                return ValueType.BOOLEAN;
+            }
+            default -> {
+                if (numbers) {
+                    compareNumbers(expr);
+                    return ValueType.BOOLEAN;
+                }
+
+                emit(expr.left, ValueType.OBJECT);
+                emit(expr.right, ValueType.OBJECT);
+                loadToken(expr.operator);
+                String name = switch (expr.operator.type) {
+                    case GREATER -> "greater";
+                    case GREATER_EQUAL -> "greaterEqual";
+                    case LESS -> "less";
+                    default -> "lessEqual";
+                };
+                code.invokestatic(RUNTIME, name, STR."\{objects}Z");
+                return ValueType.BOOLEAN;
+            }
+        }
+    }
+
+    private void compareNumbers(Expr.Binary expr) {
+        emit(expr.left, ValueType.DOUBLE);
+        emit(expr.right, ValueType.DOUBLE);
+
+        // dcmpl and dcmpg differ in what they give for NaN, pick the one that makes the comparison false.
+        CodeBuilder.Label isFalse = new CodeBuilder.Label();
+        CodeBuilder.Label end = new CodeBuilder.Label();
+        switch (expr.operator.type) {
+            case GREATER -> {
+                code.dcmpl();
+                code.ifle(isFalse);
+            }
+            case GREATER_EQUAL -> {
+                code.dcmpl();
+                code.iflt(isFalse);
+            }
+            case LESS -> {
+                code.dcmpg();
+                code.ifge(isFalse);
+            }
+            default -> {
+                code.dcmpg();
+                code.ifgt(isFalse);
+            }
+        }
+
+        code.iconst(1);
+        code.goTo(end);
+        code.place(isFalse);
+        code.iconst(0);
+        code.place(end);
+    }
+
+    @Override
+    public ValueType visitCallExpr(Expr.Call expr) {
+        return call(expr, false);
+    }
+
+    // A tail call returns the call for the caller to make, see Dispatch.
+    private ValueType call(Expr.Call expr, boolean tail) {
+        if (expr.callee instanceof Expr.Get get) {
+            loadSite(Dispatch.invoke(get.name, expr.paren, tail));
+            emit(get.object, ValueType.OBJECT);
+        } else {
+            loadSite(Dispatch.call(expr.paren, tail));
+            emit(expr.callee, ValueType.OBJECT);
+        }
+
+        code.iconst(expr.arguments.size());
+        code.anewarray(OBJECT);
+        for (int i = 0; i < expr.arguments.size(); i++) {
+            code.dup();
+            code.iconst(i);
+            emit(expr.arguments.get(i), ValueType.OBJECT);
+            code.aastore();
+        }
+
+        code.aload(INTERPRETER);
+        code.invokevirtual(METHOD_HANDLE, "invokeExact", SITE_CALL_DESCRIPTOR);
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitGetExpr(Expr.Get expr) {
+        loadSite(Dispatch.get(expr.name));
+        emit(expr.object, ValueType.OBJECT);
+        code.invokevirtual(METHOD_HANDLE, "invokeExact", STR."(\{OBJECT_TYPE})\{OBJECT_TYPE}");
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitGroupingExpr(Expr.Grouping expr) {
+        return expr.expression.accept(this);
+    }
+
+    @Override
+    public ValueType visitLiteralExpr(Expr.Literal expr) {
+        switch (expr.value) {
+            case Double number -> {
+                code.ldcDouble(number);
+                return ValueType.DOUBLE;
+            }
+            case Boolean bool -> {
+                code.iconst(bool ? 1 : 0);
+                return ValueType.BOOLEAN;
+            }
+            case String string -> code.ldcString(string);
+            case null, default -> code.aconstNull();
+        }
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitLogicalExpr(Expr.Logical expr) {
+        ValueType type = types.of(expr);
+        boolean isOr = expr.operator.type == TokenType.OR;
+
+        emit(expr.left, type);
+        if (type == ValueType.DOUBLE) {
+            // A number is always truthy: "or" keeps it and never evaluates the right operand, "and" drops it.
+            if (!isOr) {
+                code.pop2();
+                emit(expr.right, type);
+            }
+            return type;
+        }
+
+        CodeBuilder.Label end = new CodeBuilder.Label();
+        code.dup();
+        if (type == ValueType.OBJECT) code.invokestatic(RUNTIME, "isTruthy", STR."(\{OBJECT_TYPE})Z");
+        if (isOr) {
+            code.ifne(end);
+        } else {
+            code.ifeq(end);
+        }
+        code.pop();
+        emit(expr.right, type);
+        code.place(end);
+        return type;
+    }
+
+    @Override
+    public ValueType visitSetExpr(Expr.Set expr) {
+        loadSite(Dispatch.set(expr.name));
+        emit(expr.object, ValueType.OBJECT);
+        emit(expr.value, ValueType.OBJECT);
+        code.invokevirtual(METHOD_HANDLE, "invokeExact", STR."(\{OBJECT_TYPE}\{OBJECT_TYPE})\{OBJECT_TYPE}");
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitSuperExpr(Expr.Super expr) {
+        throw new Unsupported("super");
+    }
+
+    @Override
+    public ValueType visitThisExpr(Expr.This expr) {
+        throw new Unsupported("this");
+    }
+
+    @Override
+    public ValueType visitUnaryExpr(Expr.Unary expr) {
+        if (expr.operator.type == TokenType.BANG) {
+            condition(expr.right);
+            code.iconst(1);
+            code.ixor();
+            return ValueType.BOOLEAN;
+        }
+
+        if (types.of(expr.right) == ValueType.DOUBLE) {
+            emit(expr.right, ValueType.DOUBLE);
+            code.dneg();
+        } else {
+            emit(expr.right, ValueType.OBJECT);
+            loadToken(expr.operator);
+            code.invokestatic(RUNTIME, "negate", STR."(\{OBJECT_TYPE}\{TOKEN_TYPE})D");
+        }
+        return ValueType.DOUBLE;
+    }
+
+    @Override
+    public ValueType visitVariableExpr(Expr.Variable expr) {
+        Analyzer.Local local = analyzer.references.get(expr);
+        if (local == null) {
+            code.aload(INTERPRETER);
+            loadToken(expr.name);
+            code.invokestatic(RUNTIME, "getGlobal", STR."(\{INTERPRETER_TYPE}\{TOKEN_TYPE})\{OBJECT_TYPE}");
+            return ValueType.OBJECT;
+        }
+
+        load(local);
+        return local.type;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        for (Stmt statement : stmt.statements) {
+            statement.accept(this);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        throw new Unsupported("class declaration");
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        ValueType type = types.of(stmt.expression);
+        emit(stmt.expression, type);
+        discard(type);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("nested function");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        CodeBuilder.Label elseBranch = new CodeBuilder.Label();
+        CodeBuilder.Label end = new CodeBuilder.Label();
+
+        condition(stmt.condition);
+        code.ifeq(elseBranch);
+        stmt.thenBranch.accept(this);
+        code.goTo(end);
+        code.place(elseBranch);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        code.place(end);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        emit(stmt.expression, ValueType.OBJECT);
+        code.aload(INTERPRETER);
+        code.invokestatic(RUNTIME, "print", STR."(\{OBJECT_TYPE}\{INTERPRETER_TYPE})V");
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            code.aconstNull();
+        } else if (stmt.value instanceof Expr.Call call) {
+            call(call, true);
+        } else {
+            emit(stmt.value, ValueType.OBJECT);
+        }
+        code.areturn();
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        Analyzer.Local local = analyzer.declarations.get(stmt);
+        local.index = code.newLocal(local.type == ValueType.DOUBLE ? 2 : 1);
+
+        if (stmt.initializer == null) {
+            code.aconstNull();
+        } else {
+            emit(stmt.initializer, local.type);
+        }
+        store(local);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        CodeBuilder.Label start = new CodeBuilder.Label();
+        CodeBuilder.Label end = new CodeBuilder.Label();
+
+        code.place(start);
+        condition(stmt.condition);
+        code.ifeq(end);
+        stmt.body.accept(this);
+        code.goTo(start);
+        code.place(end);
+        return null;
+    }
+}
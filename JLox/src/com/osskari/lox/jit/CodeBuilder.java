@@ -0,0 +1,378 @@
+package com.osskari.lox.jit;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Bytecode of one method. Every instruction adjusts the tracked operand stack depth, which gives max_stack without a
+ * separate analysis. Forward branches are patched when their label is placed.
+ */
+final class CodeBuilder {
+    static final class Label {
+        private int position = -1;
+        private int stack = -1;
+        private final List<Integer> jumps = new ArrayList<>();
+    }
+
+    private static final int ACONST_NULL = 0x01;
+    private static final int ICONST_0 = 0x03;
+    private static final int SIPUSH = 0x11;
+    private static final int LDC = 0x12;
+    private static final int LDC_W = 0x13;
+    private static final int LDC2_W = 0x14;
+    private static final int DLOAD = 0x18;
+    private static final int ALOAD = 0x19;
+    private static final int AALOAD = 0x32;
+    private static final int DSTORE = 0x39;
+    private static final int ASTORE = 0x3a;
+    private static final int AASTORE = 0x53;
+    private static final int POP = 0x57;
+    private static final int POP2 = 0x58;
+    private static final int DUP = 0x59;
+    private static final int DUP2 = 0x5c;
+    private static final int DADD = 0x63;
+    private static final int DSUB = 0x67;
+    private static final int DMUL = 0x6b;
+    private static final int DNEG = 0x77;
+    private static final int IXOR = 0x82;
+    private static final int DCMPL = 0x97;
+    private static final int DCMPG = 0x98;
+    private static final int IFEQ = 0x99;
+    private static final int IFNE = 0x9a;
+    private static final int IFLT = 0x9b;
+    private static final int IFGE = 0x9c;
+    private static final int IFGT = 0x9d;
+    private static final int IFLE = 0x9e;
+    private static final int GOTO = 0xa7;
+    private static final int ARETURN = 0xb0;
+    private static final int RETURN = 0xb1;
+    private static final int GETSTATIC = 0xb2;
+    private static final int PUTSTATIC = 0xb3;
+    private static final int INVOKEVIRTUAL = 0xb6;
+    private static final int INVOKESPECIAL = 0xb7;
+    private static final int INVOKESTATIC = 0xb8;
+    private static final int INVOKEINTERFACE = 0xb9;
+    private static final int ANEWARRAY = 0xbd;
+    private static final int CHECKCAST = 0xc0;
+
+    private final ClassBuilder owner;
+    private final int access;
+    private final String name;
+    private final String descriptor;
+    private byte[] code = new byte[256];
+    private int length = 0;
+    private int stack = 0;
+    private int maxStack = 0;
+    private int maxLocals;
+
+    CodeBuilder(ClassBuilder owner, int access, String name, String descriptor, int argumentSlots) {
+        this.owner = owner;
+        this.access = access;
+        this.name = name;
+        this.descriptor = descriptor;
+        this.maxLocals = argumentSlots;
+    }
+
+    /**
+     * Reserves local variable slots, two for a double.
+     */
+    int newLocal(int size) {
+        int index = maxLocals;
+        maxLocals += size;
+        if (maxLocals > 0xFFFF) throw new Unsupported("too many locals");
+        return index;
+    }
+
+    void aconstNull() {
+        op(ACONST_NULL, 1);
+    }
+
+    void iconst(int value) {
+        // iconst_m1 to iconst_5 are consecutive opcodes.
+        if (value >= -1 && value <= 5) {
+            op(ICONST_0 + value, 1);
+        } else {
+            if (value < Short.MIN_VALUE || value > Short.MAX_VALUE) throw new Unsupported("constant out of range");
+            op(SIPUSH, 1);
+            u2(value);
+        }
+    }
+
+    void ldcString(String value) {
+        ldc(owner.string(value));
+    }
+
+    void ldcClass(String internalName) {
+        ldc(owner.classRef(internalName));
+    }
+
+    void ldcDouble(double value) {
+        op(LDC2_W, 2);
+        u2(owner.doubleConstant(value));
+    }
+
+    private void ldc(int index) {
+        if (index <= 0xFF) {
+            op(LDC, 1);
+            write(index);
+        } else {
+            op(LDC_W, 1);
+            u2(index);
+        }
+    }
+
+    void aload(int local) {
+        localOp(ALOAD, local, 1);
+    }
+
+    void astore(int local) {
+        localOp(ASTORE, local, -1);
+    }
+
+    void dload(int local) {
+        localOp(DLOAD, local, 2);
+    }
+
+    void dstore(int local) {
+        localOp(DSTORE, local, -2);
+    }
+
+    private void localOp(int opcode, int local, int delta) {
+        if (local > 0xFF) {
+            // wide prefix
+            write(0xc4);
+            op(opcode, delta);
+            u2(local);
+        } else {
+            op(opcode, delta);
+            write(local);
+        }
+    }
+
+    void aaload() {
+        op(AALOAD, -1);
+    }
+
+    void aastore() {
+        op(AASTORE, -3);
+    }
+
+    void pop() {
+        op(POP, -1);
+    }
+
+    void pop2() {
+        op(POP2, -2);
+    }
+
+    void dup() {
+        op(DUP, 1);
+    }
+
+    void dup2() {
+        op(DUP2, 2);
+    }
+
+    void dadd() {
+        op(DADD, -2);
+    }
+
+    void dsub() {
+        op(DSUB, -2);
+    }
+
+    void dmul() {
+        op(DMUL, -2);
+    }
+
+    void dneg() {
+        op(DNEG, 0);
+    }
+
+    void ixor() {
+        op(IXOR, -1);
+    }
+
+    void dcmpl() {
+        op(DCMPL, -3);
+    }
+
+    void dcmpg() {
+        op(DCMPG, -3);
+    }
+
+    void ifeq(Label target) {
+        jump(IFEQ, -1, target);
+    }
+
+    void ifne(Label target) {
+        jump(IFNE, -1, target);
+    }
+
+    void iflt(Label target) {
+        jump(IFLT, -1, target);
+    }
+
+    void ifge(Label target) {
+        jump(IFGE, -1, target);
+    }
+
+    void ifgt(Label target) {
+        jump(IFGT, -1, target);
+    }
+
+    void ifle(Label target) {
+        jump(IFLE, -1, target);
+    }
+
+    void goTo(Label target) {
+        jump(GOTO, 0, target);
+    }
+
+    void areturn() {
+        op(ARETURN, -1);
+    }
+
+    void vreturn() {
+        op(RETURN, 0);
+    }
+
+    void getstatic(String owner, String name, String descriptor) {
+        op(GETSTATIC, slots(descriptor));
+        u2(this.owner.fieldRef(owner, name, descriptor));
+    }
+
+    void putstatic(String owner, String name, String descriptor) {
+        op(PUTSTATIC, -slots(descriptor));
+        u2(this.owner.fieldRef(owner, name, descriptor));
+    }
+
+    void invokestatic(String owner, String name, String descriptor) {
+        op(INVOKESTATIC, returnSlots(descriptor) - argumentSlots(descriptor));
+        u2(this.owner.methodRef(owner, name, descriptor));
+    }
+
+    void invokespecial(String owner, String name, String descriptor) {
+        op(INVOKESPECIAL, returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+        u2(this.owner.methodRef(owner, name, descriptor));
+    }
+
+    void invokevirtual(String owner, String name, String descriptor) {
+        op(INVOKEVIRTUAL, returnSlots(descriptor) - argumentSlots(descriptor) - 1);
+        u2(this.owner.methodRef(owner, name, descriptor));
+    }
+
+    void invokeinterface(String owner, String name, String descriptor) {
+        int arguments = argumentSlots(descriptor) + 1;
+        op(INVOKEINTERFACE, returnSlots(descriptor) - arguments);
+        u2(this.owner.interfaceMethodRef(owner, name, descriptor));
+        write(arguments);
+        write(0);
+    }
+
+    void anewarray(String type) {
+        op(ANEWARRAY, 0);
+        u2(owner.classRef(type));
+    }
+
+    void checkcast(String type) {
+        op(CHECKCAST, 0);
+        u2(owner.classRef(type));
+    }
+
+    void place(Label label) {
+        label.position = length;
+        for (int position : label.jumps) {
+            int offset = label.position - position;
+            if (offset > Short.MAX_VALUE) throw new Unsupported("branch too far");
+            code[position + 1] = (byte) (offset >> 8);
+            code[position + 2] = (byte) offset;
+        }
+        label.jumps.clear();
+
+        // Code after an unconditional jump is only reached through the label, with the stack the jumps left.
+        if (label.stack >= 0) stack = label.stack;
+        label.stack = stack;
+    }
+
+    void finish() {
+        owner.addMethod(access, name, descriptor, this);
+    }
+
+    byte[] bytecode() {
+        if (length > 0xFFFF) throw new Unsupported("method too large");
+        return Arrays.copyOf(code, length);
+    }
+
+    int maxStack() {
+        return maxStack;
+    }
+
+    int maxLocals() {
+        return maxLocals;
+    }
+
+    private void jump(int opcode, int delta, Label target) {
+        int position = length;
+        op(opcode, delta);
+        if (target.stack < 0) target.stack = stack;
+        if (target.position >= 0) {
+            branchOffset(target.position - position);
+        } else {
+            target.jumps.add(position);
+            u2(0);
+        }
+    }
+
+    private void branchOffset(int offset) {
+        if (offset < Short.MIN_VALUE) throw new Unsupported("branch too far");
+        u2(offset);
+    }
+
+    private void op(int opcode, int delta) {
+        write(opcode);
+        stack += delta;
+        if (stack > maxStack) maxStack = stack;
+    }
+
+    private void write(int value) {
+        if (length == code.length) code = Arrays.copyOf(code, length * 2);
+        code[length++] = (byte) value;
+    }
+
+    private void u2(int value) {
+        write(value >> 8);
+        write(value);
+    }
+
+    private static int argumentSlots(String descriptor) {
+        int slots = 0;
+        int i = 1;
+        while (descriptor.charAt(i) != ')') {
+            char c = descriptor.charAt(i);
+            if (c == 'D' || c == 'J') {
+                slots += 2;
+                i++;
+            } else {
+                slots += 1;
+                while (descriptor.charAt(i) == '[') i++;
+                if (descriptor.charAt(i) == 'L') i = descriptor.indexOf(';', i);
+                i++;
+            }
+        }
+        return slots;
+    }
+
+    private static int returnSlots(String descriptor) {
+        return slots(descriptor.substring(descriptor.indexOf(')') + 1));
+    }
+
+    private static int slots(String type) {
+        return switch (type.charAt(0)) {
+            case 'V' -> 0;
+            case 'D', 'J' -> 2;
+            default -> 1;
+        };
+    }
+}
@@ -0,0 +1,12 @@
+package com.osskari.lox.jit;
+
+import com.osskari.lox.Interpreter;
+
+import java.util.List;
+
+/**
+ * A Lox function body compiled to JVM bytecode. The arity has already been checked by the caller.
+ */
+public interface CompiledFunction {
+    Object call(Interpreter interpreter, List<Object> arguments);
+}
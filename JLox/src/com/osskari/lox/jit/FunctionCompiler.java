@@ -0,0 +1,49 @@
+package com.osskari.lox.jit;
+
+import com.osskari.lox.Stmt;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Compiles function bodies to JVM bytecode once they have been called often enough. Each function becomes a hidden
+ * class implementing {@link CompiledFunction}, which the JVM's own JIT then compiles like any other code.
+ * <p>
+ * Only a subset of Lox is handled: locals, globals, arithmetic, comparisons, control flow, calls, properties and print.
+ * Functions using closures, classes, this, super or nested functions keep being interpreted.
+ */
+public final class FunctionCompiler {
+    static final int COMPILE_THRESHOLD = 10;
+
+    /**
+     * The compiled code for the function, or null while it should still be interpreted.
+     */
+    public CompiledFunction compiled(Stmt.Function function) {
+        if (function.compiled != null) return function.compiled;
+
+        // Compile once, on the call that reaches the threshold. A function that can't be compiled is never retried.
+        if (function.calls++ != COMPILE_THRESHOLD) return null;
+
+        function.compiled = compile(function);
+        return function.compiled;
+    }
+
+    private CompiledFunction compile(Stmt.Function function) {
+        BodyCompiler compiler;
+        byte[] bytes;
+        try {
+            compiler = new BodyCompiler(function, STR."com/osskari/lox/jit/Function$\{function.name.lexeme()}");
+            bytes = compiler.compile();
+        } catch (Unsupported e) {
+            return null;
+        }
+
+        try {
+            MethodHandles.Lookup lookup =
+                    MethodHandles.lookup().defineHiddenClassWithClassData(bytes, compiler.classData(), true);
+            return (CompiledFunction) lookup.findConstructor(lookup.lookupClass(), MethodType.methodType(void.class)).invoke();
+        } catch (Throwable e) {
+            throw new IllegalStateException(STR."Couldn't load the compiled code for \{function.name.lexeme()}.", e);
+        }
+    }
+}
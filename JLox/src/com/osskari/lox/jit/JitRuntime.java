@@ -0,0 +1,102 @@
+package com.osskari.lox.jit;
+
+import com.osskari.lox.Interpreter;
+import com.osskari.lox.Rope;
+import com.osskari.lox.RuntimeError;
+import com.osskari.lox.Token;
+
+/**
+ * Operations compiled code calls for anything that isn't plain arithmetic on numbers. They have the same semantics
+ * and error messages as the corresponding parts of the Interpreter.
+ */
+public final class JitRuntime {
+    private JitRuntime() {
+    }
+
+    public static Object getGlobal(Interpreter interpreter, Token name) {
+        return interpreter.getGlobal(name);
+    }
+
+    public static Object assignGlobal(Object value, Interpreter interpreter, Token name) {
+        interpreter.assignGlobal(name, value);
+        return value;
+    }
+
+    public static void print(Object value, Interpreter interpreter) {
+        interpreter.print(value);
+    }
+
+    public static Object add(Object left, Object right) {
+        if (left instanceof Double a && right instanceof Double b) return a + b;
+        if (left instanceof CharSequence || right instanceof CharSequence) return Rope.concat(text(left), text(right));
+        return null;
+    }
+
+    public static double subtract(Object left, Object right, Token operator) {
+        return number(left, right, operator) - (double) right;
+    }
+
+    public static double multiply(Object left, Object right, Token operator) {
+        return number(left, right, operator) * (double) right;
+    }
+
+    public static double divide(Object left, Object right, Token operator) {
+        return divide(number(left, right, operator), (double) right, operator);
+    }
+
+    public static double divide(double left, double right, Token operator) {
+        if (right == 0) throw new RuntimeError(operator, "Division by zero is undefined behaviour.");
+        return left / right;
+    }
+
+    public static boolean greater(Object left, Object right, Token operator) {
+        return number(left, right, operator) > (double) right;
+    }
+
+    public static boolean greaterEqual(Object left, Object right, Token operator) {
+        return number(left, right, operator) >= (double) right;
+    }
+
+    public static boolean less(Object left, Object right, Token operator) {
+        return number(left, right, operator) < (double) right;
+    }
+
+    public static boolean lessEqual(Object left, Object right, Token operator) {
+        return number(left, right, operator) <= (double) right;
+    }
+
+    public static double negate(Object operand, Token operator) {
+        if (operand instanceof Double number) return -number;
+        throw new RuntimeError(operator, "Operand must be a number");
+    }
+
+    public static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+
+    public static boolean isEqual(Object left, Object right) {
+        if (left == null && right == null) return true;
+        if (left == null) return false;
+        if (left instanceof CharSequence && right instanceof CharSequence) {
+            return left.toString().equals(right.toString());
+        }
+        return left.equals(right);
+    }
+
+    // Double.equals semantics, which is what isEqual gives boxed numbers: NaN equals itself and 0.0 isn't -0.0.
+    public static boolean isEqual(double left, double right) {
+        return Double.doubleToLongBits(left) == Double.doubleToLongBits(right);
+    }
+
+    private static double number(Object left, Object right, Token operator) {
+        if (left instanceof Double a && right instanceof Double) return a;
+        throw new RuntimeError(operator, "Operands must be numbers");
+    }
+
+    private static CharSequence text(Object object) {
+        if (object instanceof CharSequence text) return text;
+        return Interpreter.stringify(object);
+    }
+}
@@ -0,0 +1,96 @@
+package com.osskari.lox.jit;
+
+import com.osskari.lox.Expr;
+
+import java.util.Map;
+
+/**
+ * The static type of an expression, given the current types of the locals. The compiler leaves exactly this type on
+ * the stack when it evaluates the expression.
+ */
+final class Types implements Expr.Visitor<ValueType> {
+    private final Map<Expr, Analyzer.Local> references;
+
+    Types(Map<Expr, Analyzer.Local> references) {
+        this.references = references;
+    }
+
+    ValueType of(Expr expr) {
+        return expr.accept(this);
+    }
+
+    @Override
+    public ValueType visitAssignExpr(Expr.Assign expr) {
+        Analyzer.Local local = references.get(expr);
+        return local == null ? ValueType.OBJECT : local.type;
+    }
+
+    @Override
+    public ValueType visitBinaryExpr(Expr.Binary expr) {
+        return switch (expr.operator.type) {
+            case PLUS -> of(expr.left) == ValueType.DOUBLE && of(expr.right) == ValueType.DOUBLE
+                    ? ValueType.DOUBLE
+                    : ValueType.OBJECT;
+            case MINUS, STAR, SLASH -> ValueType.DOUBLE;
+            default -> ValueType.BOOLEAN;
+        };
+    }
+
+    @Override
+    public ValueType visitCallExpr(Expr.Call expr) {
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitGetExpr(Expr.Get expr) {
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitGroupingExpr(Expr.Grouping expr) {
+        return of(expr.expression);
+    }
+
+    @Override
+    public ValueType visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value instanceof Double) return ValueType.DOUBLE;
+        if (expr.value instanceof Boolean) return ValueType.BOOLEAN;
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitLogicalExpr(Expr.Logical expr) {
+        // The result is one of the operands, both have to be left on the stack the same way.
+        ValueType left = of(expr.left);
+        return left == of(expr.right) ? left : ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitSetExpr(Expr.Set expr) {
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitSuperExpr(Expr.Super expr) {
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitThisExpr(Expr.This expr) {
+        return ValueType.OBJECT;
+    }
+
+    @Override
+    public ValueType visitUnaryExpr(Expr.Unary expr) {
+        return switch (expr.operator.type) {
+            case MINUS -> ValueType.DOUBLE;
+            default -> ValueType.BOOLEAN;
+        };
+    }
+
+    @Override
+    public ValueType visitVariableExpr(Expr.Variable expr) {
+        Analyzer.Local local = references.get(expr);
+        return local == null ? ValueType.OBJECT : local.type;
+    }
+}
@@ -0,0 +1,11 @@
+package com.osskari.lox.jit;
+
+/**
+ * Thrown while compiling a function that uses something the compiler doesn't handle, the function then stays
+ * interpreted.
+ */
+final class Unsupported extends RuntimeException {
+    Unsupported(String what) {
+        super(what, null, false, false);
+    }
+}
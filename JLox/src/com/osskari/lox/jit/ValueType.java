@@ -0,0 +1,11 @@
+package com.osskari.lox.jit;
+
+/**
+ * What compiled code keeps on the operand stack or in a local for a value: an unboxed double, an int holding a
+ * boolean, or any Lox value as an object.
+ */
+enum ValueType {
+    DOUBLE,
+    BOOLEAN,
+    OBJECT
+}
@@ -0,0 +1,376 @@
+package com.osskari.lox.nodes;
+
+import com.osskari.lox.Interpreter;
+import com.osskari.lox.RuntimeError;
+import com.osskari.lox.Token;
+import com.osskari.lox.TokenType;
+
+/**
+ * Arithmetic and comparison operators. Every operator starts out uninitialized, rewrites itself on its first run
+ * into a node specialized for the operand types it saw, and falls back to the generic node for good the first time
+ * a specialization sees types it doesn't handle.
+ */
+abstract class BinaryNode extends ExpressionNode {
+    ExpressionNode left;
+    ExpressionNode right;
+    final Token operator;
+
+    BinaryNode(ExpressionNode left, Token operator, ExpressionNode right) {
+        this.left = adopt(left);
+        this.operator = operator;
+        this.right = adopt(right);
+    }
+
+    static BinaryNode create(ExpressionNode left, Token operator, ExpressionNode right) {
+        return new Uninitialized(left, operator, right);
+    }
+
+    final Object generalize(Object leftValue, Object rightValue) {
+        if (!isReplaced()) replace(new Generic(left, operator, right));
+        return Generic.evaluate(operator, leftValue, rightValue);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+        if (left == oldChild) left = (ExpressionNode) newChild;
+        if (right == oldChild) right = (ExpressionNode) newChild;
+    }
+
+    static final class Uninitialized extends BinaryNode {
+        Uninitialized(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object leftValue = left.execute(frame);
+            Object rightValue = right.execute(frame);
+
+            if (isReplaced()) return Generic.evaluate(operator, leftValue, rightValue);
+            replace(specialize(leftValue, rightValue));
+            return Generic.evaluate(operator, leftValue, rightValue);
+        }
+
+        private BinaryNode specialize(Object leftValue, Object rightValue) {
+            if (leftValue instanceof Double && rightValue instanceof Double) {
+                return switch (operator.type) {
+                    case PLUS -> new Add(left, operator, right);
+                    case MINUS -> new Subtract(left, operator, right);
+                    case STAR -> new Multiply(left, operator, right);
+                    case SLASH -> new Divide(left, operator, right);
+                    case GREATER -> new Greater(left, operator, right);
+                    case GREATER_EQUAL -> new GreaterEqual(left, operator, right);
+                    case LESS -> new Less(left, operator, right);
+                    case LESS_EQUAL -> new LessEqual(left, operator, right);
+                    default -> new Generic(left, operator, right);
+                };
+            }
+
+            if (operator.type == TokenType.PLUS && leftValue instanceof String && rightValue instanceof String) {
+                return new Concatenate(left, operator, right);
+            }
+
+            return new Generic(left, operator, right);
+        }
+    }
+
+    /**
+     * Base of the specializations that expect two numbers. Operands are evaluated with executeDouble so they stay
+     * unboxed, a miss on either side hands both values to the generic node. Every subclass evaluates its operands
+     * itself rather than through a shared helper so the JIT keeps a separate type profile for each operator.
+     */
+    abstract static class Numeric extends BinaryNode {
+        Numeric(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        final UnexpectedResultException leftMiss(Frame frame, UnexpectedResultException e) {
+            return new UnexpectedResultException(generalize(e.result, right.execute(frame)));
+        }
+
+        final UnexpectedResultException rightMiss(double leftValue, UnexpectedResultException e) {
+            return new UnexpectedResultException(generalize(leftValue, e.result));
+        }
+    }
+
+    /**
+     * Operators producing a number. The boxed entry point only boxes the final result.
+     */
+    abstract static class Arithmetic extends Numeric {
+        Arithmetic(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        final Object execute(Frame frame) {
+            try {
+                return executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        abstract double executeDouble(Frame frame) throws UnexpectedResultException;
+    }
+
+    static final class Add extends Arithmetic {
+        Add(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                throw leftMiss(frame, e);
+            }
+
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                throw rightMiss(a, e);
+            }
+
+            return a + b;
+        }
+    }
+
+    static final class Subtract extends Arithmetic {
+        Subtract(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                throw leftMiss(frame, e);
+            }
+
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                throw rightMiss(a, e);
+            }
+
+            return a - b;
+        }
+    }
+
+    static final class Multiply extends Arithmetic {
+        Multiply(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                throw leftMiss(frame, e);
+            }
+
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                throw rightMiss(a, e);
+            }
+
+            return a * b;
+        }
+    }
+
+    static final class Divide extends Arithmetic {
+        Divide(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                throw leftMiss(frame, e);
+            }
+
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                throw rightMiss(a, e);
+            }
+
+            // The generic node reports the division by zero.
+            if (b == 0) throw new UnexpectedResultException(generalize(a, b));
+            return a / b;
+        }
+    }
+
+    static final class Greater extends Numeric {
+        Greater(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return leftMiss(frame, e).result;
+            }
+
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return rightMiss(a, e).result;
+            }
+
+            return a > b;
+        }
+    }
+
+    static final class GreaterEqual extends Numeric {
+        GreaterEqual(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return leftMiss(frame, e).result;
+            }
+
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return rightMiss(a, e).result;
+            }
+
+            return a >= b;
+        }
+    }
+
+    static final class Less extends Numeric {
+        Less(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return leftMiss(frame, e).result;
+            }
+
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return rightMiss(a, e).result;
+            }
+
+            return a < b;
+        }
+    }
+
+    static final class LessEqual extends Numeric {
+        LessEqual(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            double a;
+            try {
+                a = left.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return leftMiss(frame, e).result;
+            }
+
+            double b;
+            try {
+                b = right.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return rightMiss(a, e).result;
+            }
+
+            return a <= b;
+        }
+    }
+
+    static final class Concatenate extends BinaryNode {
+        Concatenate(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object leftValue = left.execute(frame);
+            Object rightValue = right.execute(frame);
+            if (leftValue instanceof String a && rightValue instanceof String b) return a + b;
+            return generalize(leftValue, rightValue);
+        }
+    }
+
+    static final class Generic extends BinaryNode {
+        Generic(ExpressionNode left, Token operator, ExpressionNode right) {
+            super(left, operator, right);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object leftValue = left.execute(frame);
+            Object rightValue = right.execute(frame);
+            return evaluate(operator, leftValue, rightValue);
+        }
+
+        // Same semantics as Interpreter.visitBinaryExpr, including the runtime errors.
+        static Object evaluate(Token operator, Object leftValue, Object rightValue) {
+            if (operator.type == TokenType.PLUS) {
+                if (leftValue instanceof Double a && rightValue instanceof Double b) return a + b;
+                if (leftValue instanceof String || rightValue instanceof String) {
+                    return Interpreter.stringify(leftValue) + Interpreter.stringify(rightValue);
+                }
+                return null;
+            }
+
+            if (!(leftValue instanceof Double a) || !(rightValue instanceof Double b)) {
+                throw new RuntimeError(operator, "Operands must be numbers");
+            }
+
+            return switch (operator.type) {
+                case MINUS -> a - b;
+                case STAR -> a * b;
+                case SLASH -> {
+                    if (b == 0) {
+                        throw new RuntimeError(operator, "Division by zero is undefined behaviour.");
+                    }
+                    yield a / b;
+                }
+                case GREATER -> a > b;
+                case GREATER_EQUAL -> a >= b;
+                case LESS -> a < b;
+                case LESS_EQUAL -> a <= b;
+                default -> null;
+            };
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package com.osskari.lox.nodes;
+
+/**
+ * How deep calls nest in one interpreter, and how deep they may. Every call node of the interpreter shares it.
+ */
+final class CallDepth {
+    int depth = 0;
+    int max;
+
+    CallDepth(int max) {
+        this.max = max;
+    }
+}
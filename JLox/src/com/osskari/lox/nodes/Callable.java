@@ -0,0 +1,7 @@
+package com.osskari.lox.nodes;
+
+interface Callable {
+    int arity();
+
+    Object call(Object[] arguments);
+}
@@ -0,0 +1,311 @@
+package com.osskari.lox.nodes;
+
+import com.osskari.lox.RuntimeError;
+import com.osskari.lox.Token;
+import com.osskari.lox.TokenType;
+
+import java.util.Map;
+
+abstract class ExpressionNode extends Node {
+    abstract Object execute(Frame frame);
+
+    /**
+     * Evaluates to an unboxed number. Nodes that can produce a double without boxing override this, the result is
+     * handed back through {@link UnexpectedResultException} when it isn't a number.
+     */
+    double executeDouble(Frame frame) throws UnexpectedResultException {
+        Object value = execute(frame);
+        if (value instanceof Double number) return number;
+        throw new UnexpectedResultException(value);
+    }
+
+    /**
+     * Evaluates for side effects only, nodes with an unboxed path override this so a discarded result is never boxed.
+     */
+    void executeVoid(Frame frame) {
+        execute(frame);
+    }
+
+    static final class Literal extends ExpressionNode {
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return value;
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            if (value instanceof Double number) return number;
+            throw new UnexpectedResultException(value);
+        }
+    }
+
+    static final class ReadLocal extends ExpressionNode {
+        private final int depth;
+        private final int slot;
+
+        ReadLocal(int depth, int slot) {
+            this.depth = depth;
+            this.slot = slot;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return frame.ancestor(depth).get(slot);
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            return frame.ancestor(depth).getDouble(slot);
+        }
+    }
+
+    static final class ReadGlobal extends ExpressionNode {
+        private final Token name;
+        private final Map<String, Object> globals;
+
+        ReadGlobal(Token name, Map<String, Object> globals) {
+            this.name = name;
+            this.globals = globals;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object value = globals.get(name.lexeme());
+            if (value == null && !globals.containsKey(name.lexeme())) {
+                throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme()}'.");
+            }
+            return value;
+        }
+    }
+
+    static final class WriteGlobal extends ExpressionNode {
+        private final Token name;
+        private final Map<String, Object> globals;
+        private ExpressionNode value;
+
+        WriteGlobal(Token name, Map<String, Object> globals, ExpressionNode value) {
+            this.name = name;
+            this.globals = globals;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object result = value.execute(frame);
+            if (!globals.containsKey(name.lexeme())) {
+                throw new RuntimeError(name, STR."Undefined variable '\{name.lexeme()}'.");
+            }
+            globals.put(name.lexeme(), result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (value == oldChild) value = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Equal extends ExpressionNode {
+        private ExpressionNode left;
+        private ExpressionNode right;
+        private final boolean negate;
+
+        Equal(ExpressionNode left, ExpressionNode right, boolean negate) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+            this.negate = negate;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return NodeInterpreter.isEqual(left.execute(frame), right.execute(frame)) != negate;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (left == oldChild) left = (ExpressionNode) newChild;
+            if (right == oldChild) right = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Logical extends ExpressionNode {
+        private ExpressionNode left;
+        private ExpressionNode right;
+        private final boolean isOr;
+
+        Logical(ExpressionNode left, Token operator, ExpressionNode right) {
+            this.left = adopt(left);
+            this.right = adopt(right);
+            this.isOr = operator.type == TokenType.OR;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object value = left.execute(frame);
+            if (NodeInterpreter.isTruthy(value) == isOr) return value;
+            return right.execute(frame);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (left == oldChild) left = (ExpressionNode) newChild;
+            if (right == oldChild) right = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Not extends ExpressionNode {
+        private ExpressionNode operand;
+
+        Not(ExpressionNode operand) {
+            this.operand = adopt(operand);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return !NodeInterpreter.isTruthy(operand.execute(frame));
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (operand == oldChild) operand = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Call extends ExpressionNode {
+        private ExpressionNode callee;
+        private final ExpressionNode[] arguments;
+        private final Token paren;
+        private final CallDepth depth;
+
+        Call(ExpressionNode callee, ExpressionNode[] arguments, Token paren, CallDepth depth) {
+            this.callee = adopt(callee);
+            this.arguments = arguments;
+            for (ExpressionNode argument : arguments) {
+                adopt(argument);
+            }
+            this.paren = paren;
+            this.depth = depth;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object function = callee.execute(frame);
+
+            Object[] values = new Object[arguments.length];
+            for (int i = 0; i < arguments.length; i++) {
+                values[i] = arguments[i].execute(frame);
+            }
+
+            if (!(function instanceof Callable callable)) {
+                throw new RuntimeError(paren, "Can only call functions and classes.");
+            }
+
+            if (values.length != callable.arity()) {
+                throw new RuntimeError(paren, STR."Expected \{callable.arity()} arguments but got \{values.length}.");
+            }
+
+            if (depth.depth == depth.max) {
+                throw new RuntimeError(paren, "Stack overflow.");
+            }
+
+            // A runtime error ends the script, so the depth only needs putting back after calls that return.
+            depth.depth++;
+            Object result = callable.call(values);
+            depth.depth--;
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (callee == oldChild) callee = (ExpressionNode) newChild;
+            for (int i = 0; i < arguments.length; i++) {
+                if (arguments[i] == oldChild) arguments[i] = (ExpressionNode) newChild;
+            }
+        }
+    }
+
+    static final class Get extends ExpressionNode {
+        private ExpressionNode object;
+        private final Token name;
+
+        Get(ExpressionNode object, Token name) {
+            this.object = adopt(object);
+            this.name = name;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            if (object.execute(frame) instanceof NodeInstance instance) {
+                return instance.get(name);
+            }
+
+            throw new RuntimeError(name, "Only instances have properties.");
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (object == oldChild) object = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Set extends ExpressionNode {
+        private ExpressionNode object;
+        private final Token name;
+        private ExpressionNode value;
+
+        Set(ExpressionNode object, Token name, ExpressionNode value) {
+            this.object = adopt(object);
+            this.name = name;
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            if (!(object.execute(frame) instanceof NodeInstance instance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object result = value.execute(frame);
+            instance.set(name, result);
+            return result;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (object == oldChild) object = (ExpressionNode) newChild;
+            if (value == oldChild) value = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Super extends ExpressionNode {
+        private final int depth;
+        private final int slot;
+        private final Token method;
+
+        Super(int depth, int slot, Token method) {
+            this.depth = depth;
+            this.slot = slot;
+            this.method = method;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            NodeClass superclass = (NodeClass) frame.ancestor(depth).get(slot);
+            // Methods are declared directly inside the scope holding "super", "this" is the first slot of a method.
+            NodeInstance object = (NodeInstance) frame.ancestor(depth - 1).get(0);
+            NodeFunction function = superclass.findMethod(method.lexeme());
+
+            if (function == null) {
+                throw new RuntimeError(method, STR."Undefined property '\{method.lexeme()}'.");
+            }
+
+            return function.bind(object);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.osskari.lox.nodes;
+
+/**
+ * Local slots of one scope. Numbers are kept unboxed in a parallel array, the object slot then only holds a marker
+ * saying so. The number array is allocated the first time a number is stored.
+ */
+final class Frame {
+    private static final Object NUMBER = new Object();
+
+    final Frame enclosing;
+    private final Object[] slots;
+    private double[] numbers = null;
+
+    Frame(Frame enclosing, int size) {
+        this.enclosing = enclosing;
+        this.slots = new Object[size];
+    }
+
+    Frame ancestor(int distance) {
+        Frame frame = this;
+        for (int i = 0; i < distance; i++) {
+            frame = frame.enclosing;
+        }
+
+        return frame;
+    }
+
+    Object get(int slot) {
+        Object value = slots[slot];
+        if (value == NUMBER) return numbers[slot];
+        return value;
+    }
+
+    double getDouble(int slot) throws UnexpectedResultException {
+        Object value = slots[slot];
+        if (value == NUMBER) return numbers[slot];
+        if (value instanceof Double number) return number;
+        throw new UnexpectedResultException(value);
+    }
+
+    void set(int slot, Object value) {
+        slots[slot] = value;
+    }
+
+    void setDouble(int slot, double value) {
+        if (numbers == null) numbers = new double[slots.length];
+        numbers[slot] = value;
+        slots[slot] = NUMBER;
+    }
+}
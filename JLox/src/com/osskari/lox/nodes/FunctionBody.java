@@ -0,0 +1,15 @@
+package com.osskari.lox.nodes;
+
+final class FunctionBody {
+    final String name;
+    final int arity;
+    final int scopeSize;
+    final StatementNode[] statements;
+
+    FunctionBody(String name, int arity, int scopeSize, StatementNode[] statements) {
+        this.name = name;
+        this.arity = arity;
+        this.scopeSize = scopeSize;
+        this.statements = statements;
+    }
+}
@@ -0,0 +1,83 @@
+package com.osskari.lox.nodes;
+
+import com.osskari.lox.RuntimeError;
+import com.osskari.lox.Token;
+
+/**
+ * Unary minus, specialized the same way as {@link BinaryNode}.
+ */
+abstract class NegateNode extends ExpressionNode {
+    ExpressionNode operand;
+    final Token operator;
+
+    NegateNode(Token operator, ExpressionNode operand) {
+        this.operator = operator;
+        this.operand = adopt(operand);
+    }
+
+    static NegateNode create(Token operator, ExpressionNode operand) {
+        return new Uninitialized(operator, operand);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+        if (operand == oldChild) operand = (ExpressionNode) newChild;
+    }
+
+    static final class Uninitialized extends NegateNode {
+        Uninitialized(Token operator, ExpressionNode operand) {
+            super(operator, operand);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object value = operand.execute(frame);
+            if (!isReplaced()) {
+                replace(value instanceof Double ? new Number(operator, operand) : new Generic(operator, operand));
+            }
+            return Generic.negate(operator, value);
+        }
+    }
+
+    static final class Number extends NegateNode {
+        Number(Token operator, ExpressionNode operand) {
+            super(operator, operand);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            try {
+                return executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            try {
+                return -operand.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                if (e.result instanceof Double number) return -number;
+                if (!isReplaced()) replace(new Generic(operator, operand));
+                throw new UnexpectedResultException(Generic.negate(operator, e.result));
+            }
+        }
+    }
+
+    static final class Generic extends NegateNode {
+        Generic(Token operator, ExpressionNode operand) {
+            super(operator, operand);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return negate(operator, operand.execute(frame));
+        }
+
+        static Object negate(Token operator, Object value) {
+            if (value instanceof Double number) return -number;
+            throw new RuntimeError(operator, "Operand must be a number");
+        }
+    }
+}
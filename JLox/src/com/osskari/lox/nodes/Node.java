@@ -0,0 +1,33 @@
+package com.osskari.lox.nodes;
+
+/**
+ * Base of the executable node tree. A node that learns something about the values flowing through it can swap
+ * itself out for a more specialized node, its parent picks up the replacement through replaceChild.
+ */
+abstract class Node {
+    Node parent = null;
+
+    final <T extends Node> T adopt(T child) {
+        if (child != null) child.parent = this;
+        return child;
+    }
+
+    final <T extends Node> T replace(T newNode) {
+        parent.replaceChild(this, newNode);
+        newNode.parent = parent;
+        parent = null;
+        return newNode;
+    }
+
+    /**
+     * A recursive call can rewrite a node while an outer invocation is still running it. The outer invocation must
+     * then finish without rewriting again, otherwise the replacement would steal the children of the live node.
+     */
+    final boolean isReplaced() {
+        return parent == null;
+    }
+
+    void replaceChild(Node oldChild, Node newChild) {
+        throw new IllegalStateException(STR."\{getClass().getSimpleName()} has no replaceable children.");
+    }
+}
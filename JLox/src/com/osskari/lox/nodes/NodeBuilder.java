@@ -0,0 +1,184 @@
+package com.osskari.lox.nodes;
+
+import com.osskari.lox.Expr;
+import com.osskari.lox.Stmt;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the resolved syntax tree into executable nodes. Variable accesses use the depth and slot the resolver
+ * stored on the tree, operators start out as uninitialized nodes that specialize themselves once they run.
+ */
+class NodeBuilder implements Expr.Visitor<ExpressionNode>, Stmt.Visitor<StatementNode> {
+    private final Map<String, Object> globals;
+    private final PrintStream out;
+    private final CallDepth depth;
+
+    NodeBuilder(Map<String, Object> globals, PrintStream out, CallDepth depth) {
+        this.globals = globals;
+        this.out = out;
+        this.depth = depth;
+    }
+
+    StatementNode[] build(List<Stmt> statements) {
+        StatementNode[] nodes = new StatementNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = build(statements.get(i));
+        }
+        return nodes;
+    }
+
+    private StatementNode build(Stmt statement) {
+        return statement == null ? null : statement.accept(this);
+    }
+
+    private ExpressionNode build(Expr expression) {
+        return expression == null ? null : expression.accept(this);
+    }
+
+    private FunctionBody function(Stmt.Function function) {
+        return new FunctionBody(function.name.lexeme(), function.params.size(), function.scopeSize,
+                build(function.body));
+    }
+
+    @Override
+    public ExpressionNode visitAssignExpr(Expr.Assign expr) {
+        ExpressionNode value = build(expr.value);
+        if (expr.depth >= 0) {
+            return WriteLocalNode.create(expr.depth, expr.slot, value);
+        }
+        return new ExpressionNode.WriteGlobal(expr.name, globals, value);
+    }
+
+    @Override
+    public ExpressionNode visitBinaryExpr(Expr.Binary expr) {
+        ExpressionNode left = build(expr.left);
+        ExpressionNode right = build(expr.right);
+
+        return switch (expr.operator.type) {
+            case EQUAL_EQUAL -> new ExpressionNode.Equal(left, right, false);
+            case BANG_EQUAL -> new ExpressionNode.Equal(left, right, true);
+            default -> BinaryNode.create(left, expr.operator, right);
+        };
+    }
+
+    @Override
+    public ExpressionNode visitCallExpr(Expr.Call expr) {
+        ExpressionNode[] arguments = new ExpressionNode[expr.arguments.size()];
+        for (int i = 0; i < arguments.length; i++) {
+            arguments[i] = build(expr.arguments.get(i));
+        }
+        return new ExpressionNode.Call(build(expr.callee), arguments, expr.paren, depth);
+    }
+
+    @Override
+    public ExpressionNode visitGetExpr(Expr.Get expr) {
+        return new ExpressionNode.Get(build(expr.object), expr.name);
+    }
+
+    @Override
+    public ExpressionNode visitGroupingExpr(Expr.Grouping expr) {
+        return build(expr.expression);
+    }
+
+    @Override
+    public ExpressionNode visitLiteralExpr(Expr.Literal expr) {
+        return new ExpressionNode.Literal(expr.value);
+    }
+
+    @Override
+    public ExpressionNode visitLogicalExpr(Expr.Logical expr) {
+        return new ExpressionNode.Logical(build(expr.left), expr.operator, build(expr.right));
+    }
+
+    @Override
+    public ExpressionNode visitSetExpr(Expr.Set expr) {
+        return new ExpressionNode.Set(build(expr.object), expr.name, build(expr.value));
+    }
+
+    @Override
+    public ExpressionNode visitSuperExpr(Expr.Super expr) {
+        return new ExpressionNode.Super(expr.depth, expr.slot, expr.method);
+    }
+
+    @Override
+    public ExpressionNode visitThisExpr(Expr.This expr) {
+        return new ExpressionNode.ReadLocal(expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExpressionNode visitUnaryExpr(Expr.Unary expr) {
+        ExpressionNode operand = build(expr.right);
+
+        return switch (expr.operator.type) {
+            case MINUS -> NegateNode.create(expr.operator, operand);
+            default -> new ExpressionNode.Not(operand);
+        };
+    }
+
+    @Override
+    public ExpressionNode visitVariableExpr(Expr.Variable expr) {
+        if (expr.depth >= 0) {
+            return new ExpressionNode.ReadLocal(expr.depth, expr.slot);
+        }
+        return new ExpressionNode.ReadGlobal(expr.name, globals);
+    }
+
+    @Override
+    public StatementNode visitBlockStmt(Stmt.Block stmt) {
+        return new StatementNode.Block(stmt.scopeSize, build(stmt.statements));
+    }
+
+    @Override
+    public StatementNode visitClassStmt(Stmt.Class stmt) {
+        FunctionBody[] methods = new FunctionBody[stmt.methods.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = function(stmt.methods.get(i));
+        }
+
+        return new StatementNode.Class(stmt.name, stmt.slot, globals, build(stmt.superclass),
+                stmt.superclass == null ? null : stmt.superclass.name, methods);
+    }
+
+    @Override
+    public StatementNode visitExpressionStmt(Stmt.Expression stmt) {
+        return new StatementNode.Expression(build(stmt.expression));
+    }
+
+    @Override
+    public StatementNode visitFunctionStmt(Stmt.Function stmt) {
+        return new StatementNode.Function(stmt.name, stmt.slot, globals, function(stmt));
+    }
+
+    @Override
+    public StatementNode visitIfStmt(Stmt.If stmt) {
+        return new StatementNode.If(build(stmt.condition), build(stmt.thenBranch), build(stmt.elseBranch));
+    }
+
+    @Override
+    public StatementNode visitPrintStmt(Stmt.Print stmt) {
+        return new StatementNode.Print(build(stmt.expression), out);
+    }
+
+    @Override
+    public StatementNode visitReturnStmt(Stmt.Return stmt) {
+        return new StatementNode.Return(build(stmt.value));
+    }
+
+    @Override
+    public StatementNode visitVarStmt(Stmt.Var stmt) {
+        if (stmt.slot >= 0) {
+            // A local declaration is just the first write to its slot.
+            ExpressionNode value = stmt.initializer == null ? new ExpressionNode.Literal(null) : build(stmt.initializer);
+            return new StatementNode.Expression(WriteLocalNode.create(0, stmt.slot, value));
+        }
+        return new StatementNode.Var(stmt.name, stmt.slot, globals, build(stmt.initializer));
+    }
+
+    @Override
+    public StatementNode visitWhileStmt(Stmt.While stmt) {
+        return new StatementNode.While(build(stmt.condition), build(stmt.body));
+    }
+}
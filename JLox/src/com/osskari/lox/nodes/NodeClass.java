@@ -0,0 +1,48 @@
+package com.osskari.lox.nodes;
+
+import java.util.Map;
+
+final class NodeClass implements Callable {
+    final String name;
+    private final NodeClass superclass;
+    private final Map<String, NodeFunction> methods;
+
+    NodeClass(String name, NodeClass superclass, Map<String, NodeFunction> methods) {
+        this.name = name;
+        this.superclass = superclass;
+        this.methods = methods;
+    }
+
+    NodeFunction findMethod(String name) {
+        NodeFunction method = methods.get(name);
+        if (method != null) return method;
+
+        if (superclass != null) {
+            return superclass.findMethod(name);
+        }
+
+        return null;
+    }
+
+    @Override
+    public int arity() {
+        NodeFunction initializer = findMethod("init");
+        if (initializer == null) return 0;
+        return initializer.arity();
+    }
+
+    @Override
+    public Object call(Object[] arguments) {
+        NodeInstance instance = new NodeInstance(this);
+        NodeFunction initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.call(instance, arguments);
+        }
+        return instance;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,56 @@
+package com.osskari.lox.nodes;
+
+final class NodeFunction implements Callable {
+    private final FunctionBody body;
+    private final Frame closure;
+    private final boolean isInitializer;
+    private final NodeInstance receiver;
+
+    NodeFunction(FunctionBody body, Frame closure, boolean isInitializer) {
+        this(body, closure, isInitializer, null);
+    }
+
+    private NodeFunction(FunctionBody body, Frame closure, boolean isInitializer, NodeInstance receiver) {
+        this.body = body;
+        this.closure = closure;
+        this.isInitializer = isInitializer;
+        this.receiver = receiver;
+    }
+
+    @Override
+    public int arity() {
+        return body.arity;
+    }
+
+    @Override
+    public Object call(Object[] arguments) {
+        return call(receiver, arguments);
+    }
+
+    // Methods keep "this" in slot 0 of their own frame, ahead of the parameters.
+    Object call(NodeInstance thisValue, Object[] arguments) {
+        Frame frame = new Frame(closure, body.scopeSize);
+        int first = 0;
+        if (thisValue != null) {
+            frame.set(0, thisValue);
+            first = 1;
+        }
+        for (int i = 0; i < arguments.length; i++) {
+            frame.set(first + i, arguments[i]);
+        }
+
+        Object result = StatementNode.executeAll(body.statements, frame);
+
+        if (isInitializer) return thisValue;
+        return result == StatementNode.NORMAL ? null : result;
+    }
+
+    NodeFunction bind(NodeInstance instance) {
+        return new NodeFunction(body, closure, isInitializer, instance);
+    }
+
+    @Override
+    public String toString() {
+        return STR."<fn \{body.name}>";
+    }
+}
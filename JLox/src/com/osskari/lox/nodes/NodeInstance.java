@@ -0,0 +1,37 @@
+package com.osskari.lox.nodes;
+
+import com.osskari.lox.RuntimeError;
+import com.osskari.lox.Token;
+
+import java.util.HashMap;
+import java.util.Map;
+
+final class NodeInstance {
+    private final NodeClass klass;
+    private final Map<String, Object> fields = new HashMap<>();
+
+    NodeInstance(NodeClass klass) {
+        this.klass = klass;
+    }
+
+    Object get(Token name) {
+        Object value = fields.get(name.lexeme());
+        if (value != null || fields.containsKey(name.lexeme())) {
+            return value;
+        }
+
+        NodeFunction method = klass.findMethod(name.lexeme());
+        if (method != null) return method.bind(this);
+
+        throw new RuntimeError(name, STR."Undefined property '\{name.lexeme()}'.");
+    }
+
+    void set(Token name, Object value) {
+        fields.put(name.lexeme(), value);
+    }
+
+    @Override
+    public String toString() {
+        return STR."\{klass.name} instance";
+    }
+}
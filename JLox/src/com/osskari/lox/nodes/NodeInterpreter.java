@@ -0,0 +1,77 @@
+package com.osskari.lox.nodes;
+
+import com.osskari.lox.ErrorReporter;
+import com.osskari.lox.LoxEngine;
+import com.osskari.lox.RuntimeError;
+import com.osskari.lox.Stmt;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Runs programs as a tree of self-specializing nodes instead of visiting the syntax tree. Top level statements
+ * execute in a root frame without slots since everything declared there is global.
+ */
+public class NodeInterpreter {
+    private final Map<String, Object> globals = new HashMap<>();
+    private final Frame root = new Frame(null, 0);
+    private final CallDepth depth = new CallDepth(LoxEngine.DEFAULT_FRAMES);
+    private final PrintStream out;
+    private final ErrorReporter reporter;
+
+    public NodeInterpreter(PrintStream out, ErrorReporter reporter) {
+        this.out = out;
+        this.reporter = reporter;
+        globals.put("clock", new Callable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Object[] arguments) {
+                return (double) System.currentTimeMillis() / 1000.0;
+            }
+
+            @Override
+            public String toString() {
+                return "<native fn>";
+            }
+        });
+    }
+
+    /**
+     * Lets calls nest maxFrames deep before the interpreter stops with a stack overflow.
+     */
+    public void limitFrames(int maxFrames) {
+        depth.max = maxFrames;
+    }
+
+    public void interpret(List<Stmt> statements) {
+        StatementNode[] nodes = new NodeBuilder(globals, out, depth).build(statements);
+        depth.depth = 0;
+        try {
+            StatementNode.executeAll(nodes, root);
+        } catch (RuntimeError error) {
+            reporter.runtimeError(error);
+        } catch (StackOverflowError error) {
+            // The thread's stack ran out before the call depth reached its limit.
+            reporter.runtimeError("Stack overflow.");
+        }
+    }
+
+    static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+
+    static boolean isEqual(Object left, Object right) {
+        if (left == null && right == null) return true;
+        if (left == null) return false;
+
+        return left.equals(right);
+    }
+}
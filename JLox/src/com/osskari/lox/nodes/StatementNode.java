@@ -0,0 +1,259 @@
+package com.osskari.lox.nodes;
+
+import com.osskari.lox.Interpreter;
+import com.osskari.lox.RuntimeError;
+import com.osskari.lox.Token;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Statements report how they completed instead of throwing: they return {@link #NORMAL} when execution should go on
+ * with the next statement, anything else is the value of a return statement (null being a returned nil).
+ */
+abstract class StatementNode extends Node {
+    static final Object NORMAL = new Object();
+
+    abstract Object execute(Frame frame);
+
+    static Object executeAll(StatementNode[] statements, Frame frame) {
+        for (StatementNode statement : statements) {
+            Object result = statement.execute(frame);
+            if (result != NORMAL) return result;
+        }
+        return NORMAL;
+    }
+
+    static void define(Frame frame, Map<String, Object> globals, Token name, int slot, Object value) {
+        if (slot < 0) {
+            globals.put(name.lexeme(), value);
+        } else {
+            frame.set(slot, value);
+        }
+    }
+
+    static final class Expression extends StatementNode {
+        private ExpressionNode expression;
+
+        Expression(ExpressionNode expression) {
+            this.expression = adopt(expression);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            expression.executeVoid(frame);
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (expression == oldChild) expression = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Print extends StatementNode {
+        private ExpressionNode expression;
+        private final PrintStream out;
+
+        Print(ExpressionNode expression, PrintStream out) {
+            this.expression = adopt(expression);
+            this.out = out;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            out.println(Interpreter.stringify(expression.execute(frame)));
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (expression == oldChild) expression = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Var extends StatementNode {
+        private final Token name;
+        private final int slot;
+        private final Map<String, Object> globals;
+        private ExpressionNode initializer;
+
+        Var(Token name, int slot, Map<String, Object> globals, ExpressionNode initializer) {
+            this.name = name;
+            this.slot = slot;
+            this.globals = globals;
+            this.initializer = adopt(initializer);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object value = initializer == null ? null : initializer.execute(frame);
+            define(frame, globals, name, slot, value);
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (initializer == oldChild) initializer = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Block extends StatementNode {
+        private final int scopeSize;
+        private final StatementNode[] statements;
+
+        Block(int scopeSize, StatementNode[] statements) {
+            this.scopeSize = scopeSize;
+            this.statements = statements;
+            for (StatementNode statement : statements) {
+                adopt(statement);
+            }
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return executeAll(statements, new Frame(frame, scopeSize));
+        }
+    }
+
+    static final class If extends StatementNode {
+        private ExpressionNode condition;
+        private final StatementNode thenBranch;
+        private final StatementNode elseBranch;
+
+        If(ExpressionNode condition, StatementNode thenBranch, StatementNode elseBranch) {
+            this.condition = adopt(condition);
+            this.thenBranch = adopt(thenBranch);
+            this.elseBranch = adopt(elseBranch);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            if (NodeInterpreter.isTruthy(condition.execute(frame))) {
+                return thenBranch.execute(frame);
+            } else if (elseBranch != null) {
+                return elseBranch.execute(frame);
+            }
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (condition == oldChild) condition = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class While extends StatementNode {
+        private ExpressionNode condition;
+        private final StatementNode body;
+
+        While(ExpressionNode condition, StatementNode body) {
+            this.condition = adopt(condition);
+            this.body = adopt(body);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            while (NodeInterpreter.isTruthy(condition.execute(frame))) {
+                Object result = body.execute(frame);
+                if (result != NORMAL) return result;
+            }
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (condition == oldChild) condition = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Return extends StatementNode {
+        private ExpressionNode value;
+
+        Return(ExpressionNode value) {
+            this.value = adopt(value);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            return value == null ? null : value.execute(frame);
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (value == oldChild) value = (ExpressionNode) newChild;
+        }
+    }
+
+    static final class Function extends StatementNode {
+        private final Token name;
+        private final int slot;
+        private final Map<String, Object> globals;
+        private final FunctionBody body;
+
+        Function(Token name, int slot, Map<String, Object> globals, FunctionBody body) {
+            this.name = name;
+            this.slot = slot;
+            this.globals = globals;
+            this.body = body;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            define(frame, globals, name, slot, new NodeFunction(body, frame, false));
+            return NORMAL;
+        }
+    }
+
+    static final class Class extends StatementNode {
+        private final Token name;
+        private final int slot;
+        private final Map<String, Object> globals;
+        private ExpressionNode superclass;
+        private final Token superclassName;
+        private final FunctionBody[] methods;
+
+        Class(Token name, int slot, Map<String, Object> globals, ExpressionNode superclass, Token superclassName,
+              FunctionBody[] methods) {
+            this.name = name;
+            this.slot = slot;
+            this.globals = globals;
+            this.superclass = adopt(superclass);
+            this.superclassName = superclassName;
+            this.methods = methods;
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            NodeClass parent = null;
+            if (superclass != null) {
+                if (!(superclass.execute(frame) instanceof NodeClass klass)) {
+                    throw new RuntimeError(superclassName, "Superclass must be a class.");
+                }
+                parent = klass;
+            }
+
+            define(frame, globals, name, slot, null);
+
+            Frame closure = frame;
+            if (parent != null) {
+                closure = new Frame(frame, 1);
+                closure.set(0, parent);
+            }
+
+            Map<String, NodeFunction> functions = new HashMap<>();
+            for (FunctionBody method : methods) {
+                functions.put(method.name, new NodeFunction(method, closure, method.name.equals("init")));
+            }
+
+            define(frame, globals, name, slot, new NodeClass(name.lexeme(), parent, functions));
+            return NORMAL;
+        }
+
+        @Override
+        void replaceChild(Node oldChild, Node newChild) {
+            if (superclass == oldChild) superclass = (ExpressionNode) newChild;
+        }
+    }
+}
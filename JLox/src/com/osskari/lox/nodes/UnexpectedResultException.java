@@ -0,0 +1,14 @@
+package com.osskari.lox.nodes;
+
+/**
+ * Thrown by a typed execute method when the value doesn't have the expected type. The caller gets the value anyway
+ * and is expected to rewrite itself into a node that doesn't make that assumption.
+ */
+final class UnexpectedResultException extends Exception {
+    final Object result;
+
+    UnexpectedResultException(Object result) {
+        super(null, null, false, false);
+        this.result = result;
+    }
+}
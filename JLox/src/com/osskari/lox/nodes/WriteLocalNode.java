@@ -0,0 +1,77 @@
+package com.osskari.lox.nodes;
+
+/**
+ * Assignment to a local slot. It starts out assuming the value is a number and stores it unboxed, the first other
+ * value turns it into the generic node for good.
+ */
+abstract class WriteLocalNode extends ExpressionNode {
+    final int depth;
+    final int slot;
+    ExpressionNode value;
+
+    WriteLocalNode(int depth, int slot, ExpressionNode value) {
+        this.depth = depth;
+        this.slot = slot;
+        this.value = adopt(value);
+    }
+
+    static WriteLocalNode create(int depth, int slot, ExpressionNode value) {
+        return new Number(depth, slot, value);
+    }
+
+    @Override
+    void replaceChild(Node oldChild, Node newChild) {
+        if (value == oldChild) value = (ExpressionNode) newChild;
+    }
+
+    static final class Number extends WriteLocalNode {
+        Number(int depth, int slot, ExpressionNode value) {
+            super(depth, slot, value);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            try {
+                return executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                return e.result;
+            }
+        }
+
+        @Override
+        void executeVoid(Frame frame) {
+            try {
+                executeDouble(frame);
+            } catch (UnexpectedResultException ignored) {
+            }
+        }
+
+        @Override
+        double executeDouble(Frame frame) throws UnexpectedResultException {
+            double result;
+            try {
+                result = value.executeDouble(frame);
+            } catch (UnexpectedResultException e) {
+                frame.ancestor(depth).set(slot, e.result);
+                if (!isReplaced()) replace(new Generic(depth, slot, value));
+                throw e;
+            }
+
+            frame.ancestor(depth).setDouble(slot, result);
+            return result;
+        }
+    }
+
+    static final class Generic extends WriteLocalNode {
+        Generic(int depth, int slot, ExpressionNode value) {
+            super(depth, slot, value);
+        }
+
+        @Override
+        Object execute(Frame frame) {
+            Object result = value.execute(frame);
+            frame.ancestor(depth).set(slot, result);
+            return result;
+        }
+    }
+}
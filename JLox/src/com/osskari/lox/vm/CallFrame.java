@@ -0,0 +1,39 @@
+package com.osskari.lox.vm;
+
+class CallFrame {
+    ObjClosure closure;
+    byte[] code;
+    Object[] constants;
+    int ip;
+    // Stack index of the frame's slot zero, which holds the callee or the receiver.
+    int slots;
+
+    void enter(ObjClosure closure, int slots) {
+        this.closure = closure;
+        this.code = closure.function.chunk.code;
+        this.constants = closure.function.chunk.constants;
+        this.ip = 0;
+        this.slots = slots;
+    }
+
+    int readByte() {
+        return code[ip++] & 0xff;
+    }
+
+    int readShort() {
+        ip += 2;
+        return ((code[ip - 2] & 0xff) << 8) | (code[ip - 1] & 0xff);
+    }
+
+    Object readConstant() {
+        return constants[readShort()];
+    }
+
+    String readString() {
+        return (String) readConstant();
+    }
+
+    int line() {
+        return closure.function.chunk.lines[ip - 1];
+    }
+}
@@ -0,0 +1,598 @@
+package com.osskari.lox.vm;
+
+import com.osskari.lox.ErrorReporter;
+import com.osskari.lox.Expr;
+import com.osskari.lox.Stmt;
+import com.osskari.lox.Token;
+import com.osskari.lox.TokenType;
+
+import java.util.List;
+
+/**
+ * Compiles a parsed and resolved program into bytecode. The resolver has already reported every scoping error, so
+ * this only has to lay out stack slots and upvalues the way CLox's single-pass compiler does.
+ */
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int UINT8_COUNT = 256;
+    private static final int UINT16_MAX = 65535;
+
+    private enum FunctionType {
+        FUNCTION,
+        INITIALIZER,
+        METHOD,
+        SCRIPT
+    }
+
+    private static class Local {
+        final String name;
+        int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final ObjFunction function;
+        final FunctionType type;
+
+        final Local[] locals = new Local[UINT8_COUNT];
+        int localCount = 0;
+        final Upvalue[] upvalues = new Upvalue[UINT8_COUNT];
+        int scopeDepth = 0;
+
+        FunctionState(FunctionState enclosing, ObjFunction function, FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+
+            // Slot zero holds the receiver in methods and the called function everywhere else.
+            locals[localCount++] = new Local(type == FunctionType.FUNCTION || type == FunctionType.SCRIPT ? "" : "this", 0);
+        }
+    }
+
+    private final ErrorReporter reporter;
+    private FunctionState current = null;
+    private Token currentToken = null;
+    private int line = 0;
+    private boolean hadError = false;
+
+    Compiler(ErrorReporter reporter) {
+        this.reporter = reporter;
+    }
+
+    ObjFunction compile(List<Stmt> statements) {
+        current = new FunctionState(null, new ObjFunction(null), FunctionType.SCRIPT);
+
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        emitReturn();
+
+        return hadError ? null : current.function;
+    }
+
+    private void compile(Stmt statement) {
+        statement.accept(this);
+    }
+
+    private void compile(Expr expression) {
+        expression.accept(this);
+    }
+
+    private void at(Token token) {
+        currentToken = token;
+        line = token.line;
+    }
+
+    private void error(String message) {
+        reporter.error(currentToken, message);
+        hadError = true;
+    }
+
+    private Chunk currentChunk() {
+        return current.function.chunk;
+    }
+
+    private void emitByte(int b) {
+        currentChunk().write((byte) b, line);
+    }
+
+    private void emitBytes(int byte1, int byte2) {
+        emitByte(byte1);
+        emitByte(byte2);
+    }
+
+    private void emitShort(int value) {
+        emitByte((value >> 8) & 0xff);
+        emitByte(value & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        emitByte(OpCode.LOOP);
+
+        int offset = currentChunk().count - loopStart + 2;
+        if (offset > UINT16_MAX) error("Loop body too large.");
+
+        emitShort(offset);
+    }
+
+    private int emitJump(byte instruction) {
+        emitByte(instruction);
+        emitShort(0xffff);
+        return currentChunk().count - 2;
+    }
+
+    private void emitReturn() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emitBytes(OpCode.GET_LOCAL, 0);
+        } else {
+            emitByte(OpCode.NIL);
+        }
+
+        emitByte(OpCode.RETURN);
+    }
+
+    private int makeConstant(Object value) {
+        int constant = currentChunk().addConstant(value);
+        if (constant > UINT16_MAX) {
+            error("Too many constants in one chunk.");
+            return 0;
+        }
+
+        return constant;
+    }
+
+    private void emitConstant(byte instruction, Object value) {
+        emitByte(instruction);
+        emitShort(makeConstant(value));
+    }
+
+    private void patchJump(int offset) {
+        int jump = currentChunk().count - offset - 2;
+
+        if (jump > UINT16_MAX) {
+            error("Too much code to jump over.");
+        }
+
+        currentChunk().code[offset] = (byte) ((jump >> 8) & 0xff);
+        currentChunk().code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        while (current.localCount > 0 && current.locals[current.localCount - 1].depth > current.scopeDepth) {
+            if (current.locals[current.localCount - 1].isCaptured) {
+                emitByte(OpCode.CLOSE_UPVALUE);
+            } else {
+                emitByte(OpCode.POP);
+            }
+            current.localCount--;
+        }
+    }
+
+    private void addLocal(String name) {
+        if (current.localCount == UINT8_COUNT) {
+            error("Too many local variables in function.");
+            return;
+        }
+
+        // Locals start out uninitialized, defineVariable marks them once their initializer has run.
+        current.locals[current.localCount++] = new Local(name, -1);
+    }
+
+    private void declareVariable(Token name) {
+        if (current.scopeDepth == 0) return;
+        addLocal(name.lexeme());
+    }
+
+    private void markInitialized() {
+        if (current.scopeDepth == 0) return;
+        current.locals[current.localCount - 1].depth = current.scopeDepth;
+    }
+
+    private void defineVariable(Token name) {
+        if (current.scopeDepth > 0) {
+            markInitialized();
+            return;
+        }
+
+        emitConstant(OpCode.DEFINE_GLOBAL, name.lexeme());
+    }
+
+    private static int resolveLocal(FunctionState state, String name) {
+        for (int i = state.localCount - 1; i >= 0; i--) {
+            if (state.locals[i].name.equals(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, int index, boolean isLocal) {
+        int upvalueCount = state.function.upvalueCount;
+
+        for (int i = 0; i < upvalueCount; i++) {
+            Upvalue upvalue = state.upvalues[i];
+            if (upvalue.index == index && upvalue.isLocal == isLocal) {
+                return i;
+            }
+        }
+
+        if (upvalueCount == UINT8_COUNT) {
+            error("Too many closure variables in function.");
+            return 0;
+        }
+
+        state.upvalues[upvalueCount] = new Upvalue(index, isLocal);
+        return state.function.upvalueCount++;
+    }
+
+    private int resolveUpvalue(FunctionState state, String name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name);
+        if (local != -1) {
+            state.enclosing.locals[local].isCaptured = true;
+            return addUpvalue(state, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(state, upvalue, false);
+        }
+
+        return -1;
+    }
+
+    private void namedVariable(String name, boolean local, boolean assign) {
+        if (local) {
+            int arg = resolveLocal(current, name);
+            if (arg != -1) {
+                emitBytes(assign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL, arg);
+                return;
+            }
+
+            arg = resolveUpvalue(current, name);
+            if (arg != -1) {
+                emitBytes(assign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE, arg);
+                return;
+            }
+        }
+
+        emitConstant(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL, name);
+    }
+
+    private void function(Stmt.Function declaration, FunctionType type) {
+        FunctionState state = new FunctionState(current, new ObjFunction(declaration.name.lexeme()), type);
+        current = state;
+        beginScope();
+
+        for (Token param : declaration.params) {
+            state.function.arity++;
+            declareVariable(param);
+            defineVariable(param);
+        }
+
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+        emitReturn();
+
+        current = state.enclosing;
+        at(declaration.name);
+        emitConstant(OpCode.CLOSURE, state.function);
+
+        for (int i = 0; i < state.function.upvalueCount; i++) {
+            emitByte(state.upvalues[i].isLocal ? 1 : 0);
+            emitByte(state.upvalues[i].index);
+        }
+    }
+
+    private void arguments(List<Expr> arguments) {
+        for (Expr argument : arguments) {
+            compile(argument);
+        }
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        at(expr.name);
+        // The resolver leaves the depth at -1 for globals, so those skip the local and upvalue search.
+        namedVariable(expr.name.lexeme(), expr.depth >= 0, true);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+        at(expr.operator);
+
+        switch (expr.operator.type) {
+            case BANG_EQUAL -> emitBytes(OpCode.EQUAL, OpCode.NOT);
+            case EQUAL_EQUAL -> emitByte(OpCode.EQUAL);
+            case GREATER -> emitByte(OpCode.GREATER);
+            case GREATER_EQUAL -> emitByte(OpCode.GREATER_EQUAL);
+            case LESS -> emitByte(OpCode.LESS);
+            case LESS_EQUAL -> emitByte(OpCode.LESS_EQUAL);
+            case PLUS -> emitByte(OpCode.ADD);
+            case MINUS -> emitByte(OpCode.SUBTRACT);
+            case STAR -> emitByte(OpCode.MULTIPLY);
+            case SLASH -> emitByte(OpCode.DIVIDE);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get get) {
+            compile(get.object);
+            arguments(expr.arguments);
+            at(get.name);
+            emitConstant(OpCode.INVOKE, get.name.lexeme());
+        } else if (expr.callee instanceof Expr.Super superExpr) {
+            at(superExpr.keyword);
+            namedVariable("this", true, false);
+            arguments(expr.arguments);
+            at(superExpr.keyword);
+            namedVariable("super", true, false);
+            emitConstant(OpCode.SUPER_INVOKE, superExpr.method.lexeme());
+        } else {
+            compile(expr.callee);
+            arguments(expr.arguments);
+            at(expr.paren);
+            emitByte(OpCode.CALL);
+        }
+
+        emitByte(expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        at(expr.name);
+        emitConstant(OpCode.GET_PROPERTY, expr.name.lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emitByte(OpCode.NIL);
+        } else if (expr.value instanceof Boolean value) {
+            emitByte(value ? OpCode.TRUE : OpCode.FALSE);
+        } else {
+            emitConstant(OpCode.CONSTANT, expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        at(expr.operator);
+
+        if (expr.operator.type == TokenType.OR) {
+            int elseJump = emitJump(OpCode.JUMP_IF_FALSE);
+            int endJump = emitJump(OpCode.JUMP);
+
+            patchJump(elseJump);
+            emitByte(OpCode.POP);
+
+            compile(expr.right);
+            patchJump(endJump);
+        } else {
+            int endJump = emitJump(OpCode.JUMP_IF_FALSE);
+
+            emitByte(OpCode.POP);
+            compile(expr.right);
+
+            patchJump(endJump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        at(expr.name);
+        emitConstant(OpCode.SET_PROPERTY, expr.name.lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitSuperExpr(Expr.Super expr) {
+        at(expr.keyword);
+        namedVariable("this", true, false);
+        namedVariable("super", true, false);
+        emitConstant(OpCode.GET_SUPER, expr.method.lexeme());
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        at(expr.keyword);
+        namedVariable("this", true, false);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        at(expr.operator);
+
+        switch (expr.operator.type) {
+            case BANG -> emitByte(OpCode.NOT);
+            case MINUS -> emitByte(OpCode.NEGATE);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        at(expr.name);
+        namedVariable(expr.name.lexeme(), expr.depth >= 0, false);
+        return null;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        at(stmt.name);
+        declareVariable(stmt.name);
+
+        emitConstant(OpCode.CLASS, stmt.name.lexeme());
+        defineVariable(stmt.name);
+
+        boolean local = stmt.slot >= 0;
+        if (stmt.superclass != null) {
+            compile(stmt.superclass);
+
+            beginScope();
+            addLocal("super");
+            markInitialized();
+
+            at(stmt.name);
+            namedVariable(stmt.name.lexeme(), local, false);
+            emitByte(OpCode.INHERIT);
+        }
+
+        at(stmt.name);
+        namedVariable(stmt.name.lexeme(), local, false);
+
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme().equals("init") ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method, type);
+            emitConstant(OpCode.METHOD, method.name.lexeme());
+        }
+        emitByte(OpCode.POP);
+
+        if (stmt.superclass != null) {
+            endScope();
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emitByte(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        at(stmt.name);
+        declareVariable(stmt.name);
+        // A function may refer to itself, so its slot is usable before the body is compiled.
+        markInitialized();
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+
+        int thenJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(stmt.thenBranch);
+
+        int elseJump = emitJump(OpCode.JUMP);
+
+        patchJump(thenJump);
+        emitByte(OpCode.POP);
+
+        if (stmt.elseBranch != null) compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emitByte(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        at(stmt.keyword);
+        if (stmt.value == null) {
+            emitReturn();
+        } else {
+            compile(stmt.value);
+            emitByte(OpCode.RETURN);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        at(stmt.name);
+        declareVariable(stmt.name);
+
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emitByte(OpCode.NIL);
+        }
+
+        defineVariable(stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = currentChunk().count;
+        compile(stmt.condition);
+
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE);
+        emitByte(OpCode.POP);
+        compile(stmt.body);
+        emitLoop(loopStart);
+
+        patchJump(exitJump);
+        emitByte(OpCode.POP);
+        return null;
+    }
+}
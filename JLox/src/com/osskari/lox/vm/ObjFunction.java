@@ -0,0 +1,18 @@
+package com.osskari.lox.vm;
+
+class ObjFunction {
+    int arity = 0;
+    int upvalueCount = 0;
+    final Chunk chunk = new Chunk();
+    final String name;
+
+    ObjFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return STR."<fn \{name}>";
+    }
+}
@@ -0,0 +1,12 @@
+package com.osskari.lox.vm;
+
+class ObjUpvalue {
+    // Index of the captured slot on the VM stack while the upvalue is open, -1 once it has been closed.
+    int location;
+    Object closed = null;
+    ObjUpvalue next = null;
+
+    ObjUpvalue(int location) {
+        this.location = location;
+    }
+}
@@ -0,0 +1,478 @@
+package com.osskari.lox.vm;
+
+import com.osskari.lox.ErrorReporter;
+import com.osskari.lox.Interpreter;
+import com.osskari.lox.Stmt;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A stack based virtual machine for Lox, the JVM counterpart of CLox's vm.c. Values are plain Java objects: nil is
+ * null, numbers are Doubles, strings are Strings and everything else is one of the Obj* classes.
+ */
+public class VM {
+    // How deep calls nest by default. The frames and the stack grow as calls nest deeper, up to the limit.
+    public static final int FRAMES_MAX = 1024;
+    private static final int INITIAL_FRAMES = 64;
+    // Stack slots a frame can use, its locals and temporaries, like CLox's UINT8_COUNT.
+    private static final int FRAME_SLOTS = 256;
+
+    public enum InterpretResult {
+        OK,
+        COMPILE_ERROR,
+        RUNTIME_ERROR
+    }
+
+    private static class VMError extends RuntimeException {
+        VMError(String message) {
+            super(message, null, false, false);
+        }
+    }
+
+    private int maxFrames = FRAMES_MAX;
+    private CallFrame[] frames = new CallFrame[INITIAL_FRAMES];
+    private int frameCount = 0;
+
+    private Object[] stack = new Object[INITIAL_FRAMES * FRAME_SLOTS];
+    private int stackTop = 0;
+    private final Map<String, Object> globals = new HashMap<>();
+    private ObjUpvalue openUpvalues = null;
+    private final PrintStream out;
+    private final ErrorReporter reporter;
+
+    public VM(PrintStream out, ErrorReporter reporter) {
+        this.out = out;
+        this.reporter = reporter;
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = new CallFrame();
+        }
+
+        defineNative("clock", 0, (stack, args) -> (double) System.currentTimeMillis() / 1000.0);
+    }
+
+    /**
+     * Lets calls nest maxFrames deep before the VM stops with a stack overflow.
+     */
+    public void limitFrames(int maxFrames) {
+        this.maxFrames = maxFrames;
+    }
+
+    public InterpretResult interpret(List<Stmt> statements) {
+        ObjFunction function = new Compiler(reporter).compile(statements);
+        if (function == null) return InterpretResult.COMPILE_ERROR;
+
+        ObjClosure closure = new ObjClosure(function);
+        push(closure);
+        try {
+            call(closure, 0);
+            run();
+        } catch (VMError error) {
+            runtimeError(error);
+            return InterpretResult.RUNTIME_ERROR;
+        }
+
+        return InterpretResult.OK;
+    }
+
+    private void resetStack() {
+        stackTop = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private void runtimeError(VMError error) {
+        StringBuilder report = new StringBuilder(error.getMessage());
+        for (int i = frameCount - 1; i >= 0; i--) {
+            CallFrame frame = frames[i];
+            ObjFunction function = frame.closure.function;
+            if (function.name == null) {
+                report.append(STR."\n[line \{frame.line()}] in script");
+            } else {
+                report.append(STR."\n[line \{frame.line()}] in \{function.name}()");
+            }
+        }
+        reporter.runtimeError(report.toString());
+
+        resetStack();
+    }
+
+    private void defineNative(String name, int arity, ObjNative.NativeFn function) {
+        globals.put(name, new ObjNative(arity, function));
+    }
+
+    private void push(Object value) {
+        stack[stackTop++] = value;
+    }
+
+    private Object pop() {
+        return stack[--stackTop];
+    }
+
+    private Object peek(int distance) {
+        return stack[stackTop - 1 - distance];
+    }
+
+    private void call(ObjClosure closure, int argCount) {
+        if (argCount != closure.function.arity) {
+            throw new VMError(STR."Expected \{closure.function.arity} arguments but got \{argCount}.");
+        }
+
+        if (frameCount == maxFrames) {
+            throw new VMError("Stack overflow.");
+        }
+        if (frameCount == frames.length) growFrames();
+        if (stackTop + FRAME_SLOTS > stack.length) stack = Arrays.copyOf(stack, stack.length * 2);
+
+        frames[frameCount++].enter(closure, stackTop - argCount - 1);
+    }
+
+    private void growFrames() {
+        int count = frames.length;
+        frames = Arrays.copyOf(frames, (int) Math.min(count * 2L, maxFrames));
+        for (int i = count; i < frames.length; i++) {
+            frames[i] = new CallFrame();
+        }
+    }
+
+    private void callValue(Object callee, int argCount) {
+        if (callee instanceof ObjClosure closure) {
+            call(closure, argCount);
+        } else if (callee instanceof ObjBoundMethod bound) {
+            stack[stackTop - argCount - 1] = bound.receiver;
+            call(bound.method, argCount);
+        } else if (callee instanceof ObjClass klass) {
+            stack[stackTop - argCount - 1] = new ObjInstance(klass);
+            ObjClosure initializer = klass.methods.get("init");
+            if (initializer != null) {
+                call(initializer, argCount);
+            } else if (argCount != 0) {
+                throw new VMError(STR."Expected 0 arguments but got \{argCount}.");
+            }
+        } else if (callee instanceof ObjNative nativeFn) {
+            if (argCount != nativeFn.arity) {
+                throw new VMError(STR."Expected \{nativeFn.arity} arguments but got \{argCount}.");
+            }
+
+            Object result = nativeFn.function.call(stack, stackTop - argCount);
+            stackTop -= argCount + 1;
+            push(result);
+        } else {
+            throw new VMError("Can only call functions and classes.");
+        }
+    }
+
+    private void invokeFromClass(ObjClass klass, String name, int argCount) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw new VMError(STR."Undefined property '\{name}'.");
+        }
+
+        call(method, argCount);
+    }
+
+    private void invoke(String name, int argCount) {
+        if (!(peek(argCount) instanceof ObjInstance instance)) {
+            throw new VMError("Only instances have properties.");
+        }
+
+        Object value = instance.fields.get(name);
+        if (value != null || instance.fields.containsKey(name)) {
+            stack[stackTop - argCount - 1] = value;
+            callValue(value, argCount);
+            return;
+        }
+
+        invokeFromClass(instance.klass, name, argCount);
+    }
+
+    private void bindMethod(ObjClass klass, String name) {
+        ObjClosure method = klass.methods.get(name);
+        if (method == null) {
+            throw new VMError(STR."Undefined property '\{name}'.");
+        }
+
+        ObjBoundMethod bound = new ObjBoundMethod(peek(0), method);
+        pop();
+        push(bound);
+    }
+
+    private ObjUpvalue captureUpvalue(int local) {
+        ObjUpvalue prevUpvalue = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.location > local) {
+            prevUpvalue = upvalue;
+            upvalue = upvalue.next;
+        }
+
+        if (upvalue != null && upvalue.location == local) {
+            return upvalue;
+        }
+
+        ObjUpvalue createdUpvalue = new ObjUpvalue(local);
+        createdUpvalue.next = upvalue;
+
+        if (prevUpvalue == null) {
+            openUpvalues = createdUpvalue;
+        } else {
+            prevUpvalue.next = createdUpvalue;
+        }
+
+        return createdUpvalue;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.location >= last) {
+            ObjUpvalue upvalue = openUpvalues;
+            upvalue.closed = stack[upvalue.location];
+            upvalue.location = -1;
+            openUpvalues = upvalue.next;
+        }
+    }
+
+    private Object readUpvalue(ObjUpvalue upvalue) {
+        return upvalue.location == -1 ? upvalue.closed : stack[upvalue.location];
+    }
+
+    private void writeUpvalue(ObjUpvalue upvalue, Object value) {
+        if (upvalue.location == -1) {
+            upvalue.closed = value;
+        } else {
+            stack[upvalue.location] = value;
+        }
+    }
+
+    private void defineMethod(String name) {
+        ObjClosure method = (ObjClosure) peek(0);
+        ObjClass klass = (ObjClass) peek(1);
+        klass.methods.put(name, method);
+        pop();
+    }
+
+    private static boolean isFalsey(Object value) {
+        return value == null || (value instanceof Boolean bool && !bool);
+    }
+
+    private static boolean valuesEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+
+    private void checkNumberOperands() {
+        if (peek(0) instanceof Double && peek(1) instanceof Double) return;
+        throw new VMError("Operands must be numbers");
+    }
+
+    private void run() {
+        CallFrame frame = frames[frameCount - 1];
+
+        for (; ; ) {
+            switch (frame.code[frame.ip++]) {
+                case OpCode.CONSTANT -> push(frame.readConstant());
+                case OpCode.NIL -> push(null);
+                case OpCode.TRUE -> push(true);
+                case OpCode.FALSE -> push(false);
+                case OpCode.POP -> stackTop--;
+                case OpCode.GET_LOCAL -> push(stack[frame.slots + frame.readByte()]);
+                case OpCode.SET_LOCAL -> stack[frame.slots + frame.readByte()] = peek(0);
+                case OpCode.GET_GLOBAL -> {
+                    String name = frame.readString();
+                    Object value = globals.get(name);
+                    if (value == null && !globals.containsKey(name)) {
+                        throw new VMError(STR."Undefined variable '\{name}'.");
+                    }
+                    push(value);
+                }
+                case OpCode.DEFINE_GLOBAL -> {
+                    globals.put(frame.readString(), peek(0));
+                    pop();
+                }
+                case OpCode.SET_GLOBAL -> {
+                    String name = frame.readString();
+                    if (!globals.containsKey(name)) {
+                        throw new VMError(STR."Undefined variable '\{name}'.");
+                    }
+                    globals.put(name, peek(0));
+                }
+                case OpCode.GET_UPVALUE -> push(readUpvalue(frame.closure.upvalues[frame.readByte()]));
+                case OpCode.SET_UPVALUE -> writeUpvalue(frame.closure.upvalues[frame.readByte()], peek(0));
+                case OpCode.GET_PROPERTY -> {
+                    if (!(peek(0) instanceof ObjInstance instance)) {
+                        throw new VMError("Only instances have properties.");
+                    }
+
+                    String name = frame.readString();
+                    Object value = instance.fields.get(name);
+                    if (value != null || instance.fields.containsKey(name)) {
+                        pop();
+                        push(value);
+                    } else {
+                        bindMethod(instance.klass, name);
+                    }
+                }
+                case OpCode.SET_PROPERTY -> {
+                    if (!(peek(1) instanceof ObjInstance instance)) {
+                        throw new VMError("Only instances have fields.");
+                    }
+
+                    instance.fields.put(frame.readString(), peek(0));
+                    Object value = pop();
+                    pop();
+                    push(value);
+                }
+                case OpCode.GET_SUPER -> {
+                    String name = frame.readString();
+                    ObjClass superclass = (ObjClass) pop();
+                    bindMethod(superclass, name);
+                }
+                case OpCode.EQUAL -> {
+                    Object b = pop();
+                    Object a = pop();
+                    push(valuesEqual(a, b));
+                }
+                case OpCode.GREATER -> {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a > b);
+                }
+                case OpCode.GREATER_EQUAL -> {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a >= b);
+                }
+                case OpCode.LESS -> {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a < b);
+                }
+                case OpCode.LESS_EQUAL -> {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a <= b);
+                }
+                case OpCode.ADD -> {
+                    Object b = peek(0);
+                    Object a = peek(1);
+                    if (a instanceof Double left && b instanceof Double right) {
+                        stackTop -= 2;
+                        push(left + right);
+                    } else {
+                        // Like the tree-walking interpreter, any other mix of operands evaluates to nil.
+                        stackTop -= 2;
+                        push(a instanceof String || b instanceof String ? Interpreter.stringify(a) + Interpreter.stringify(b) : null);
+                    }
+                }
+                case OpCode.SUBTRACT -> {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a - b);
+                }
+                case OpCode.MULTIPLY -> {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    push(a * b);
+                }
+                case OpCode.DIVIDE -> {
+                    checkNumberOperands();
+                    double b = (double) pop();
+                    double a = (double) pop();
+                    if (b == 0) {
+                        throw new VMError("Division by zero is undefined behaviour.");
+                    }
+                    push(a / b);
+                }
+                case OpCode.NOT -> push(isFalsey(pop()));
+                case OpCode.NEGATE -> {
+                    if (!(peek(0) instanceof Double value)) {
+                        throw new VMError("Operand must be a number");
+                    }
+                    stack[stackTop - 1] = -value;
+                }
+                case OpCode.PRINT -> out.println(Interpreter.stringify(pop()));
+                case OpCode.JUMP -> {
+                    int offset = frame.readShort();
+                    frame.ip += offset;
+                }
+                case OpCode.JUMP_IF_FALSE -> {
+                    int offset = frame.readShort();
+                    if (isFalsey(peek(0))) frame.ip += offset;
+                }
+                case OpCode.LOOP -> {
+                    int offset = frame.readShort();
+                    frame.ip -= offset;
+                }
+                case OpCode.CALL -> {
+                    int argCount = frame.readByte();
+                    callValue(peek(argCount), argCount);
+                    frame = frames[frameCount - 1];
+                }
+                case OpCode.INVOKE -> {
+                    String method = frame.readString();
+                    int argCount = frame.readByte();
+                    invoke(method, argCount);
+                    frame = frames[frameCount - 1];
+                }
+                case OpCode.SUPER_INVOKE -> {
+                    String method = frame.readString();
+                    int argCount = frame.readByte();
+                    ObjClass superclass = (ObjClass) pop();
+                    invokeFromClass(superclass, method, argCount);
+                    frame = frames[frameCount - 1];
+                }
+                case OpCode.CLOSURE -> {
+                    ObjFunction function = (ObjFunction) frame.readConstant();
+                    ObjClosure closure = new ObjClosure(function);
+                    push(closure);
+                    for (int i = 0; i < closure.upvalues.length; i++) {
+                        int isLocal = frame.readByte();
+                        int index = frame.readByte();
+                        if (isLocal == 1) {
+                            closure.upvalues[i] = captureUpvalue(frame.slots + index);
+                        } else {
+                            closure.upvalues[i] = frame.closure.upvalues[index];
+                        }
+                    }
+                }
+                case OpCode.CLOSE_UPVALUE -> {
+                    closeUpvalues(stackTop - 1);
+                    pop();
+                }
+                case OpCode.RETURN -> {
+                    Object result = pop();
+                    closeUpvalues(frame.slots);
+                    frameCount--;
+                    if (frameCount == 0) {
+                        pop();
+                        return;
+                    }
+
+                    stackTop = frame.slots;
+                    push(result);
+                    frame = frames[frameCount - 1];
+                }
+                case OpCode.CLASS -> push(new ObjClass(frame.readString()));
+                case OpCode.INHERIT -> {
+                    if (!(peek(1) instanceof ObjClass superclass)) {
+                        throw new VMError("Superclass must be a class.");
+                    }
+
+                    ObjClass subclass = (ObjClass) peek(0);
+                    subclass.methods.putAll(superclass.methods);
+                    pop();
+                }
+                case OpCode.METHOD -> defineMethod(frame.readString());
+            }
+        }
+    }
+}
@@ -14,29 +14,30 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
+                "Assign   : Token name, Expr value | int slot, int depth = -1",
                 "Binary   : Expr left, Token operator, Expr right",
                 "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Get      : Expr object, Token name | final InlineCache cache = new InlineCache()",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
                 "Set      : Expr object, Token name, Expr value",
-                "Super    : Token keyword, Token method",
-                "This     : Token keyword",
+                "Super    : Token keyword, Token method | int slot, int depth = -1",
+                "This     : Token keyword | int slot, int depth = -1",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"
+                "Variable : Token name | int slot, int depth = -1"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
-                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods",
+                "Block      : List<Stmt> statements | int scopeSize",
+                "Class      : Token name, Expr.Variable superclass, List<Stmt.Function> methods | int slot = -1",
                 "Expression : Expr expression",
-                "Function   : Token name, List<Token> params, List<Stmt> body",
+                "Function   : Token name, List<Token> params, List<Stmt> body | int slot = -1, int scopeSize, int calls, "
+                        + "com.osskari.lox.jit.CompiledFunction compiled, LazyBody lazy",
                 "If         : Expr condition, Stmt thenBranch, Stmt elseBranch",
                 "Print      : Expr expression",
                 "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
+                "Var        : Token name, Expr initializer | int slot = -1",
                 "While      : Expr condition, Stmt body"
         ));
     }
@@ -49,32 +50,45 @@ public class GenerateAst {
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println(STR."abstract class \{baseName} {");
+        writer.println(STR."public abstract class \{baseName} {");
+        writer.println("    // How many times the node ran, only counted while the interpreter counts executions.");
+        writer.println("    public long executions;");
+        writer.println();
 
         defineVisitor(writer, baseName, types);
 
         for (String type : types) {
             String[] strings = type.split(":");
             String className = strings[0].trim();
-            String fields = strings[1].trim();
-            defineType(writer, baseName, className, fields);
+            String[] fieldLists = strings[1].split("\\|");
+            String fields = fieldLists[0].trim();
+            String resolvedFields = fieldLists.length > 1 ? fieldLists[1].trim() : null;
+            defineType(writer, baseName, className, fields, resolvedFields);
             writer.println();
         }
 
-        writer.println("    abstract <R> R accept(Visitor<R> visitor);");
+        writer.println("    public abstract <R> R accept(Visitor<R> visitor);");
 
         writer.println("}");
 
         writer.close();
     }
 
-    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList) {
-        writer.println(STR."    static class \{className} extends \{baseName} {");
+    private static void defineType(PrintWriter writer, String baseName, String className, String fieldList,
+                                   String resolvedFieldList) {
+        writer.println(STR."    public static class \{className} extends \{baseName} {");
 
         String[] fields = fieldList.split(", ");
 
         for (String field : fields) {
-            writer.println(STR."        final \{field};");
+            writer.println(STR."        public final \{field};");
+        }
+
+        // Fields after the '|' are filled in by the resolver or the interpreter, so they stay out of the constructor.
+        if (resolvedFieldList != null) {
+            for (String field : resolvedFieldList.split(", ")) {
+                writer.println(STR."        public \{field};");
+            }
         }
 
         writer.println();
@@ -89,7 +103,7 @@ public class GenerateAst {
 
         writer.println();
         writer.println("        @Override");
-        writer.println("        <R> R accept(Visitor<R> visitor) {");
+        writer.println("        public <R> R accept(Visitor<R> visitor) {");
         writer.println(STR."            return visitor.visit\{className}\{baseName}(this);");
         writer.println("        }");
 
@@ -97,7 +111,7 @@ public class GenerateAst {
     }
 
     private static void defineVisitor(PrintWriter writer, String baseName, List<String> types) {
-        writer.println("    interface Visitor<R> {");
+        writer.println("    public interface Visitor<R> {");
 
         for (String type : types) {
             String typeName = type.split(":")[0].trim();